@@ -0,0 +1,95 @@
+package expressivo;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * A small benchmark harness: time-boxed warmup, then time-boxed measurement, reporting
+ * time per operation and bytes allocated per operation by the measuring thread
+ * (the equivalent of JMH's average-time mode with the GC profiler).
+ *
+ * The project has no build system to pull JMH in, so the harness relies on the JDK only.
+ */
+final class Benchmark {
+
+    /** keeps results alive so the JIT can't eliminate the measured operation */
+    private static volatile Object sink;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The measurement of one benchmark.
+     */
+    static final class Result {
+        final String name;
+        final long operations;
+        final double nanosPerOperation;
+        final double bytesPerOperation;
+
+        Result(String name, long operations, double nanosPerOperation, double bytesPerOperation) {
+            this.name = name;
+            this.operations = operations;
+            this.nanosPerOperation = nanosPerOperation;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+
+        /**
+         * @return allocation rate in MB/s while the operation runs
+         */
+        double allocationRate() {
+            return bytesPerOperation / nanosPerOperation * 1e9 / (1 << 20);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %14.1f ns/op %14.0f B/op %10.1f MB/s (%d ops)",
+                    name, nanosPerOperation, bytesPerOperation, allocationRate(), operations);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Run one benchmark.
+     * @param name name to report
+     * @param warmupMillis time to run the operation before measuring
+     * @param measureMillis time to measure the operation; it runs at least once
+     * @param operation operation to measure; its result is consumed so it can't be optimized away
+     * @return the measurement
+     */
+    static Result run(String name, long warmupMillis, long measureMillis, Supplier<?> operation) {
+        loop(warmupMillis, operation);
+
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long operations = loop(measureMillis, operation);
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        return new Result(name, operations, (double) elapsed / operations, (double) bytes / operations);
+    }
+
+    private static long loop(long millis, Supplier<?> operation) {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long operations = 0;
+        // read the clock once per batch, doubling the batch while it is too short to time,
+        // so that System.nanoTime doesn't dominate fast operations
+        int batch = 1;
+        long now;
+        do {
+            long batchStart = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                sink = operation.get();
+            }
+            operations += batch;
+            now = System.nanoTime();
+            if (now - batchStart < 10_000 && batch < (1 << 20)) {
+                batch *= 2;
+            }
+        } while (now < deadline);
+        return operations;
+    }
+}
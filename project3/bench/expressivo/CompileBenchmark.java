@@ -0,0 +1,94 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares repeated evaluation of one polynomial through the interpreter path
+ * (Commands.simplify with an environment) against BoundExpression.evaluate on long[]
+ * and double[] environments, and CompiledExpression.evaluate, of the polynomial as written
+ * and of its Horner form.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.CompileBenchmark
+ */
+public class CompileBenchmark {
+
+    private static final String POLYNOMIAL = "3*x*x*x + 2*x*x*y + 5*x*y*z + 7*y*y + 11*z + 13";
+
+    public static void main(String[] args) {
+        CompiledExpression compiled = Expression.parse(POLYNOMIAL).compile();
+        double[] slots = new double[compiled.variables().size()];
+        int x = compiled.variables().indexOf("x");
+        int y = compiled.variables().indexOf("y");
+        int z = compiled.variables().indexOf("z");
+        Map<String, Integer> environment = new HashMap<>();
+
+        int[] binding = {0};
+        System.out.println(Benchmark.run("interpreter", 500, 2000, () -> {
+            int i = binding[0]++;
+            environment.put("x", i % 7);
+            environment.put("y", i % 11);
+            environment.put("z", i % 13);
+            return Commands.simplify(POLYNOMIAL, environment);
+        }));
+        BoundExpression bound = Expression.parse(POLYNOMIAL).bind(VariableLayout.of("x", "y", "z"));
+        long[] longs = new long[3];
+        System.out.println(Benchmark.run("bound[long]", 500, 2000, () -> {
+            int i = binding[0]++;
+            longs[0] = i % 7;
+            longs[1] = i % 11;
+            longs[2] = i % 13;
+            return bound.evaluate(longs);
+        }));
+        double[] doubles = new double[3];
+        System.out.println(Benchmark.run("bound[double]", 500, 2000, () -> {
+            int i = binding[0]++;
+            doubles[0] = i % 7;
+            doubles[1] = i % 11;
+            doubles[2] = i % 13;
+            return bound.evaluate(doubles);
+        }));
+        System.out.println(Benchmark.run("compiled", 500, 2000, () -> {
+            int i = binding[0]++;
+            slots[x] = i % 7;
+            slots[y] = i % 11;
+            slots[z] = i % 13;
+            return compiled.evaluate(slots);
+        }));
+
+        Expression horner = Horner.optimize(Expression.parse(POLYNOMIAL));
+        System.out.println("horner: " + horner + "   (" + Horner.Cost.of(Expression.parse(POLYNOMIAL))
+                + " -> " + Horner.Cost.of(horner) + ")");
+        CompiledExpression compiledHorner = horner.compile();
+        double[] hornerSlots = new double[compiledHorner.variables().size()];
+        int hornerX = compiledHorner.variables().indexOf("x");
+        int hornerY = compiledHorner.variables().indexOf("y");
+        int hornerZ = compiledHorner.variables().indexOf("z");
+        System.out.println(Benchmark.run("compiled[horner]", 500, 2000, () -> {
+            int i = binding[0]++;
+            hornerSlots[hornerX] = i % 7;
+            hornerSlots[hornerY] = i % 11;
+            hornerSlots[hornerZ] = i % 13;
+            return compiledHorner.evaluate(hornerSlots);
+        }));
+
+        // dense univariate, where Horner saves the most: degree 24, 300 multiplications -> 24
+        StringBuilder dense = new StringBuilder("1");
+        for (int degree = 1; degree <= 24; degree++) {
+            dense.append(" + ").append(degree);
+            for (int e = 0; e < degree; e++) {
+                dense.append("*x");
+            }
+        }
+        Expression expanded = Expression.parse(dense.toString());
+        for (Expression form : new Expression[] { expanded, Horner.optimize(expanded) }) {
+            CompiledExpression compiledForm = form.compile();
+            double[] formSlots = new double[1];
+            System.out.println(Benchmark.run("compiled[degree 24, " + Horner.Cost.of(form).multiplications()
+                    + " multiplications]", 500, 2000, () -> {
+                formSlots[0] = (binding[0]++ % 7) * 0.125;
+                return compiledForm.evaluate(formSlots);
+            }));
+        }
+    }
+}
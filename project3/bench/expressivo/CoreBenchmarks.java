@@ -0,0 +1,117 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks of the core operations: parse, differentiate, simplify, toString, equals and hashCode,
+ * on generated expressions of 10 to 1e6 nodes, balanced and deep.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.CoreBenchmarks [options]
+ *   --max-nodes N     largest expression size (default 1000000)
+ *   --variables V     number of distinct variables (default 8)
+ *   --warmup MS       warmup time per benchmark (default 300)
+ *   --measure MS      measurement time per benchmark (default 1000)
+ *   --filter TEXT     only run benchmarks whose name contains TEXT
+ *   --out FILE        save the results as tab-separated values
+ *   --baseline FILE   compare with results saved by a previous run with --out
+ */
+public class CoreBenchmarks {
+
+    /** the ANTLR engine and the fully printed derivative are only run up to this size */
+    private static final int SLOW_PATH_MAX_NODES = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        int maxNodes = Integer.parseInt(options.getOrDefault("--max-nodes", "1000000"));
+        int variables = Integer.parseInt(options.getOrDefault("--variables", "8"));
+        long warmup = Long.parseLong(options.getOrDefault("--warmup", "300"));
+        long measure = Long.parseLong(options.getOrDefault("--measure", "1000"));
+        String filter = options.getOrDefault("--filter", "");
+        Map<String, Double> baseline = options.containsKey("--baseline")
+                ? load(options.get("--baseline")) : new HashMap<String, Double>();
+
+        List<Benchmark.Result> results = new ArrayList<>();
+        for (int nodes = 10; nodes <= maxNodes; nodes *= 10) {
+            for (String shape : new String[] {"balanced", "deep"}) {
+                int depth = shape.equals("balanced") ? 1 : nodes / 4;
+                // the same seed builds two equal but distinct trees, for equals
+                Expression expression = new ExpressionGenerator(nodes, variables, 1).generate(nodes, depth);
+                Expression copy = new ExpressionGenerator(nodes, variables, 1).generate(nodes, depth);
+                Map<String, Integer> environment = new ExpressionGenerator(nodes, variables, 1).environment();
+                String text = expression.toString();
+                String variable = ExpressionGenerator.name(0);
+
+                List<Case> cases = new ArrayList<>();
+                cases.add(new Case("parse", () -> Expression.parse(text, ParserEngine.PRECEDENCE)));
+                if (nodes <= SLOW_PATH_MAX_NODES) {
+                    cases.add(new Case("parse[antlr]", () -> Expression.parse(text, ParserEngine.ANTLR)));
+                    cases.add(new Case("differentiate", () -> Commands.differentiate(text, variable)));
+                }
+                cases.add(new Case("parse[cached]", () -> Expression.parse(text)));
+                cases.add(new Case("differentiate[dag]", () -> Commands.differentiateShared(text, variable)));
+                cases.add(new Case("simplify", () -> Commands.simplify(text, environment)));
+                cases.add(new Case("toString", expression::toString));
+                cases.add(new Case("equals", () -> expression.equals(copy)));
+                cases.add(new Case("hashCode", expression::hashCode));
+
+                for (Case c : cases) {
+                    String name = c.name + "/" + shape + "/" + nodes;
+                    if (!name.contains(filter)) {
+                        continue;
+                    }
+                    Benchmark.Result result = Benchmark.run(name, warmup, measure, c.operation);
+                    results.add(result);
+                    Double before = baseline.get(name);
+                    System.out.println(result + (before == null ? ""
+                            : String.format("  x%.2f vs baseline", before / result.nanosPerOperation)));
+                }
+            }
+        }
+
+        if (options.containsKey("--out")) {
+            save(results, options.get("--out"));
+        }
+    }
+
+    private static final class Case {
+        final String name;
+        final Supplier<?> operation;
+
+        Case(String name, Supplier<?> operation) {
+            this.name = name;
+            this.operation = operation;
+        }
+    }
+
+    private static void save(List<Benchmark.Result> results, String file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            for (Benchmark.Result result : results) {
+                out.printf("%s\t%.1f\t%.0f%n", result.name, result.nanosPerOperation, result.bytesPerOperation);
+            }
+        }
+    }
+
+    /**
+     * @return benchmark name -> ns/op, from a file written by save
+     */
+    private static Map<String, Double> load(String file) throws IOException {
+        Map<String, Double> results = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            results.put(fields[0], Double.parseDouble(fields[1]));
+        }
+        return results;
+    }
+}
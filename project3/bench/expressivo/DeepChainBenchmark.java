@@ -0,0 +1,42 @@
+package expressivo;
+
+import java.util.function.Supplier;
+
+/**
+ * Measures the explicit-stack traversals on a chain of alternating '+' and '*'
+ * that is far deeper than the thread stack would allow with recursion.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.DeepChainBenchmark [depth]
+ */
+public class DeepChainBenchmark {
+
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("round %d, depth %d%n", round, depth);
+            Expression chain = measure("build", depth, () -> chain(depth));
+            String text = measure("toString", depth, chain::toString);
+            Expression parsed = measure("parse", depth, () -> Expression.parse(text, ParserEngine.PRECEDENCE));
+            measure("equals", depth, () -> chain.equals(parsed));
+            measure("value", depth, chain::value);
+            measure("differentiate", depth, () -> Commands.differentiateShared(text, "x"));
+        }
+    }
+
+    private static Expression chain(int depth) {
+        Expression chain = new Var("x", 0);
+        for (int i = 1; i < depth; i++) {
+            chain = i % 2 == 0 ? new Add(chain, new Number(1)) : new Multiply(new Var("y", 0), chain);
+        }
+        return chain;
+    }
+
+    private static <T> T measure(String name, int nodes, Supplier<T> operation) {
+        long start = System.nanoTime();
+        T result = operation.get();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("  %-14s %8.1f ms  %10.0f nodes/s%n", name, elapsed / 1e6, nodes / (elapsed / 1e9));
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package expressivo;
+
+import java.util.Collections;
+
+/**
+ * Compares Commands.equivalent against comparing the expanded polynomials, on a product of
+ * k sums (x1 + 1)*(x2 + 1)*...*(xk + 1) and its derivative, whose expansions have 2^k terms.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.EquivalenceBenchmark
+ */
+public class EquivalenceBenchmark {
+
+    public static void main(String[] args) {
+        for (int k : new int[] { 4, 8, 12 }) {
+            StringBuilder product = new StringBuilder("(" + ExpressionGenerator.name(0) + " + 1)");
+            for (int i = 1; i < k; i++) {
+                product.append("*(").append(ExpressionGenerator.name(i)).append(" + 1)");
+            }
+            Expression factored = Expression.parse(product.toString());
+            Expression expanded = Polynomial.of(factored, Collections.emptyMap()).toExpression();
+            Expression derivative = Commands.differentiate(factored, ExpressionGenerator.name(0));
+            Expression expandedDerivative = Commands.differentiate(expanded, ExpressionGenerator.name(0));
+
+            System.out.println(Benchmark.run("equivalent[k=" + k + "]", 500, 2000,
+                    () -> Commands.equivalent(factored, expanded)));
+            System.out.println(Benchmark.run("expand and compare[k=" + k + "]", 500, 2000,
+                    () -> Polynomial.of(factored, Collections.emptyMap())
+                            .equals(Polynomial.of(expanded, Collections.emptyMap()))));
+            System.out.println(Benchmark.run("equivalent[derivative, k=" + k + "]", 500, 2000,
+                    () -> Commands.equivalent(derivative, expandedDerivative)));
+        }
+    }
+}
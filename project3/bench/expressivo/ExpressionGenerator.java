@@ -0,0 +1,95 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random expressions of controlled size, depth and number of variables.
+ *
+ * An expression is a spine of `depth` operator nodes, each carrying a balanced random subtree,
+ * sized so that the whole expression has about `nodes` nodes. A depth of 1 gives a balanced
+ * tree, a depth of nodes/2 a pure chain.
+ */
+final class ExpressionGenerator {
+    /*
+        Rep invariant:
+            variables >= 1, maxConstant >= 0
+     */
+    private final Random random;
+    private final int variables;
+    private final int maxConstant;
+
+    /**
+     * @param seed seed of the random choices, so runs are reproducible
+     * @param variables number of distinct variables to draw leaves from, positive
+     * @param maxConstant largest Number leaf, nonnegative
+     */
+    ExpressionGenerator(long seed, int variables, int maxConstant) {
+        this.random = new Random(seed);
+        this.variables = variables;
+        this.maxConstant = maxConstant;
+    }
+
+    /**
+     * @param nodes approximate number of nodes, positive
+     * @param depth number of operator nodes on the spine, between 1 and nodes/2
+     * @return a random expression
+     */
+    Expression generate(int nodes, int depth) {
+        if (nodes < 3) {
+            return leaf();
+        }
+        depth = Math.max(1, Math.min(depth, nodes / 2));
+        // every spine node has one balanced subtree of an odd size
+        int subtree = Math.max(1, (nodes - 1) / depth - 1) | 1;
+
+        Expression spine = balanced(subtree);
+        for (int i = 1; i < depth; i++) {
+            spine = operator(spine, balanced(subtree));
+        }
+        return spine;
+    }
+
+    /**
+     * @return an environment binding every variable to 1
+     */
+    Map<String, Integer> environment() {
+        Map<String, Integer> environment = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            environment.put(name(i), 1);
+        }
+        return environment;
+    }
+
+    /**
+     * @return a random balanced expression of exactly nodes nodes, nodes odd
+     */
+    private Expression balanced(int nodes) {
+        if (nodes <= 1) {
+            return leaf();
+        }
+        int left = ((nodes - 1) / 2) | 1;
+        return operator(balanced(left), balanced(nodes - 1 - left));
+    }
+
+    private Expression operator(Expression left, Expression right) {
+        return random.nextBoolean() ? new Add(left, right) : new Multiply(left, right);
+    }
+
+    private Expression leaf() {
+        return random.nextInt(3) == 0 ? new Number(random.nextInt(maxConstant + 1)) : new Var(name(random.nextInt(variables)), 0);
+    }
+
+    /**
+     * @return the name of the i-th variable: a, b, ..., z, ba, bb, ...
+     */
+    static String name(int i) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return name.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package expressivo;
+
+/**
+ * Compares the object tree with FlatExpression on one large generated expression:
+ * heap retained by each representation, then evaluation and differentiation time,
+ * and the time to get one derivative value by forward mode instead of a derivative tree.
+ *
+ * Run with: java -Xmx4g -cp bin:lib/antlr.jar expressivo.FlatExpressionBenchmark [nodes]
+ */
+public class FlatExpressionBenchmark {
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String variable = ExpressionGenerator.name(0);
+
+        long empty = retainedHeap();
+        Expression tree = new ExpressionGenerator(1, 8, 9).generate(nodes, 1);
+        long treeBytes = retainedHeap() - empty;
+        FlatExpression flat = FlatExpression.of(tree);
+        long bothBytes = retainedHeap() - empty;
+        System.out.printf("tree: %,d bytes, flat: %,d bytes (x%.1f smaller)%n",
+                treeBytes, bothBytes - treeBytes, (double) treeBytes / (bothBytes - treeBytes));
+
+        String text = tree.toString();
+        VariableLayout layout = VariableLayout.of(tree);
+        double[] point = new double[layout.size()];
+        java.util.Arrays.fill(point, 1);
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("round %d, %d nodes%n", round, nodes);
+            measure("tree.evaluate", tree::evaluate);
+            measure("flat.evaluate", flat::evaluate);
+            measure("flat.differentiate", () -> flat.differentiate(variable));
+            measure("dual.evaluate", () -> DualEvaluator.of(tree, layout, variable).evaluate(point));
+            // the tree derivative is only reachable from text, so its time includes a parse
+            measure("tree.parse", () -> Expression.parse(text, ParserEngine.PRECEDENCE));
+            measure("tree.differentiate", () -> Commands.differentiateShared(text, variable));
+        }
+    }
+
+    private static long retainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(String name, java.util.function.Supplier<?> operation) {
+        long start = System.nanoTime();
+        operation.get();
+        System.out.printf("  %-20s %8.1f ms%n", name, (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,66 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Scaling of ParallelFold on one large generated expression: evaluation, differentiation
+ * and the simplify fold, on pools of 1, 2, 4, ... up to N threads, with the speedup
+ * over the sequential fold.
+ *
+ * Run with: java -Xmx8g -cp bin:lib/antlr.jar expressivo.ParallelFoldBenchmark [nodes] [N]
+ */
+public class ParallelFoldBenchmark {
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String variable = ExpressionGenerator.name(0);
+
+        Expression expression = new ExpressionGenerator(1, 8, 9).generate(nodes, 1);
+        // every variable bound, so the simplify fold stays a constant fold instead of expanding products
+        Map<String, Integer> environment = new HashMap<>();
+        for (String name : VariableLayout.of(expression).names()) {
+            environment.put(name, 1);
+        }
+
+        System.out.printf("%,d nodes, threshold %,d nodes%n", ExpressionWalker.size(expression), ParallelFold.THRESHOLD);
+        double evaluate = measure("sequential evaluate", () -> ExpressionWalker.evaluate(expression), 0);
+        double differentiate = measure("sequential differentiate",
+                () -> Commands.differentiateSequentially(expression, variable), 0);
+        double simplify = measure("sequential simplify", () -> Polynomial.of(expression, environment), 0);
+
+        for (int power = 1; ; power *= 2) {
+            int threads = Math.min(power, maxThreads);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            System.out.printf("%d threads%n", threads);
+            measure("evaluate", () -> ParallelFold.evaluate(expression, pool), evaluate);
+            measure("differentiate", () -> ParallelFold.differentiate(expression, variable, pool), differentiate);
+            measure("simplify", () -> ParallelFold.polynomial(expression, environment, pool), simplify);
+            pool.shutdown();
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the best time of a few runs of operation, in ms
+     */
+    private static double measure(String name, Supplier<?> operation, double sequentialMillis) {
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            operation.get();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        if (sequentialMillis > 0) {
+            System.out.printf("  %-26s %9.1f ms  x%.2f%n", name, best, sequentialMillis / best);
+        } else {
+            System.out.printf("  %-26s %9.1f ms%n", name, best);
+        }
+        return best;
+    }
+}
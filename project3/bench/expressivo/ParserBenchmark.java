@@ -0,0 +1,41 @@
+package expressivo;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+/**
+ * Compares the ANTLR and PRECEDENCE parser engines on short and long inputs, and for ANTLR,
+ * the reused two-stage SLL/LL parser against a parser built by Expression.makeParser for
+ * every input, which predicts with full LL.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.ParserBenchmark
+ */
+public class ParserBenchmark {
+
+    public static void main(String[] args) {
+        String shortInput = "3*x*x + 2*(x + y)*z + 7";
+        StringBuilder longInput = new StringBuilder("x");
+        for (int i = 0; i < 2_000; i++) {
+            longInput.append(i % 3 == 0 ? " + " : "*").append(i % 2 == 0 ? "y" : String.valueOf(i));
+        }
+
+        for (ParserEngine engine : ParserEngine.values()) {
+            System.out.println(Benchmark.run("short/" + engine, 500, 2000,
+                    () -> Expression.parse(shortInput, engine)));
+            System.out.println(Benchmark.run("long/" + engine, 500, 2000,
+                    () -> Expression.parse(longInput.toString(), engine)));
+        }
+        // parse trees only, without building the AST
+        System.out.println(Benchmark.run("short/tree reused SLL", 500, 2000, () -> AntlrParser.parse(shortInput)));
+        System.out.println(Benchmark.run("short/tree fresh LL", 500, 2000, () -> parseFresh(shortInput)));
+        System.out.println(Benchmark.run("long/tree reused SLL", 500, 2000, () -> AntlrParser.parse(longInput.toString())));
+        System.out.println(Benchmark.run("long/tree fresh LL", 500, 2000, () -> parseFresh(longInput.toString())));
+        System.out.println("LL fallbacks: " + AntlrParser.fallbacks());
+    }
+
+    /**
+     * @return the parse tree of input, from a new lexer and parser predicting with full LL
+     */
+    private static Object parseFresh(String input) {
+        return Expression.makeParser(new ANTLRInputStream(input)).root();
+    }
+}
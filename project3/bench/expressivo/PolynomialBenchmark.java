@@ -0,0 +1,37 @@
+package expressivo;
+
+import java.util.Collections;
+
+/**
+ * Expands products of large sums: Polynomial.multiply, on packed exponents, against the
+ * term-by-term product on Monomial objects, and Commands.simplify on the same product
+ * written as an expression.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.PolynomialBenchmark
+ */
+public class PolynomialBenchmark {
+
+    public static void main(String[] args) {
+        Polynomial sum = Polynomial.ZERO;
+        for (String name : new String[] {"w", "x", "y", "z"}) {
+            sum = sum.add(Polynomial.variable(name));
+        }
+        sum = sum.add(Polynomial.constant(1));
+
+        for (int exponent : new int[] {4, 8, 12}) {
+            Polynomial power = sum.pow(exponent);
+            Polynomial shifted = power.add(Polynomial.constant(1));
+            String name = String.format("[%d terms]^2", power.terms().size());
+            System.out.println(Benchmark.run("multiply" + name, 500, 2000, () -> power.multiply(shifted)));
+            System.out.println(Benchmark.run("termByTerm" + name, 500, 2000, () -> power.multiplyTermByTerm(shifted)));
+            // coefficients with decimals take the packed term-by-term path, not Kronecker
+            Polynomial decimal = power.multiply(Polynomial.constant(Number.parse("0.5")));
+            System.out.println(Benchmark.run("multiply decimal" + name, 500, 2000, () -> decimal.multiply(shifted)));
+        }
+
+        Expression product = Expression.parse("(w + x + y + z + 1)*(w + x + y + z + 2)*(w + x + y + z + 3)"
+                + "*(w + x + y + z + 4)*(w + x + y + z + 5)*(w + x + y + z + 6)*(w + x + y + z + 7)*(w + x + y + z + 8)");
+        System.out.println(Benchmark.run("simplify product of 8 sums", 500, 2000,
+                () -> Commands.simplify(product, Collections.emptyMap())));
+    }
+}
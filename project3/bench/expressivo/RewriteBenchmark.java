@@ -0,0 +1,49 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cost of RewriteEngine as the number of rules grows: the identities alone, then with
+ * hundreds more rules that never match, against trying every rule at every node.
+ * Numbers 0 to 3 make the identities apply at many nodes.
+ *
+ * Run with: java -cp bin:lib/antlr.jar expressivo.RewriteBenchmark [nodes]
+ */
+public class RewriteBenchmark {
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 100_001;
+        Expression expression = new ExpressionGenerator(1, 8, 3).generate(nodes, 1);
+
+        for (int extra : new int[] { 0, 100, 1000 }) {
+            List<RewriteRule> rules = new ArrayList<>(RewriteEngine.IDENTITIES.rules());
+            for (int n = 0; n < extra; n++) {
+                // never match: the generator only makes numbers up to 3
+                rules.add(RewriteRule.of("x*" + (n + 1000), (n + 1000) + "*x"));
+            }
+            RewriteEngine engine = RewriteEngine.of(rules);
+            System.out.println(Benchmark.run("rewrite[" + rules.size() + " rules]", 500, 2000,
+                    () -> engine.rewrite(expression)));
+
+            // the work of an unindexed engine: every rule matched at every node, once
+            List<Expression> all = new ArrayList<>();
+            ExpressionWalker.walk(expression, all::add);
+            Map<String, Expression> bindings = new HashMap<>();
+            System.out.println(Benchmark.run("match every rule[" + rules.size() + " rules]", 500, 2000, () -> {
+                int matches = 0;
+                for (Expression node : all) {
+                    for (RewriteRule rule : rules) {
+                        bindings.clear();
+                        if (rule.match(node, bindings)) {
+                            matches++;
+                        }
+                    }
+                }
+                return matches;
+            }));
+        }
+    }
+}
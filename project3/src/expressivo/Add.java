@@ -13,11 +13,15 @@ public class Add implements Expression{
      */
     private final Expression left;
     private final Expression right;
+    private final int hashCode;
+    private final int size;
 
     public Add(Expression left, Expression right) {
         this.left = left;
         this.right = right;
         checkRep();
+        this.hashCode = combineHashes(left.hashCode(), right.hashCode());
+        this.size = ExpressionWalker.size(left, right);
     }
 
     /**
@@ -30,7 +34,7 @@ public class Add implements Expression{
 
     @Override
     public int value(){
-        return left.value() + right.value();
+        return evaluate().value();
     }
 
     /** Return a string represent an adding operation
@@ -41,7 +45,8 @@ public class Add implements Expression{
      */
     @Override
     public String toString() {
-        return "(" + left + " + " + right + ")";
+        // same as "(" + left + " + " + right + ")", built on an explicit stack
+        return ExpressionWalker.toString(this);
     }
 
     /** Two expressions to be equal if:
@@ -56,15 +61,39 @@ public class Add implements Expression{
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Add plusExp = (Add) o;
-        return left.equals(plusExp.left) && right.equals(plusExp.right);
+        if (hashCode != plusExp.hashCode) return false;
+        // compares operand by operand on an explicit stack, so deep expressions don't overflow
+        return ExpressionWalker.equal(this, plusExp);
     }
 
+    /** The hash code is computed once at construction from the (cached) hash codes
+     *  of both operands, so it costs O(1) instead of a walk over the whole subtree
+     *
+     * @return
+     */
     @Override
     public int hashCode() {
-        int result = left.hashCode();
-        result += 31 * result + right.hashCode();
+        return hashCode;
+    }
 
-        return result;
+    /**
+     * @return the hash code of a node whose operands have hash codes left and right
+     */
+    static int combineHashes(int left, int right) {
+        // mix the operand hashes with bijective steps (odd multiply, rotate, xor-shift), so that
+        // long chains don't shift the hash of deep operands out of the result and collide
+        int result = Integer.rotateLeft(left * 0x9E3779B1, 15) ^ right;
+        result = (result ^ 0x2545F491) * 0x85EBCA6B;
+
+        return result ^ (result >>> 16);
+    }
+
+    /**
+     * @return the number of nodes of this expression as a tree, counting shared subtrees
+     *         once per parent, or Integer.MAX_VALUE if there are more; cached at construction
+     */
+    int size() {
+        return size;
     }
 
     public Expression getLeft() {
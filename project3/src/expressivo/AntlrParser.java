@@ -0,0 +1,123 @@
+package expressivo;
+
+import expressivo.parser.ExpressionLexer;
+import expressivo.parser.ExpressionParser;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.LexerNoViableAltException;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ANTLR lexer and parser of one thread, reset between inputs instead of being built
+ * for every parse, with two-stage parsing. Only the token stream is new for every input:
+ * CommonTokenStream.setTokenSource in this ANTLR runtime keeps the end-of-file flag of the
+ * previous input, so a reused one would read no tokens.
+ *
+ * Stage one predicts with SLL, which is cheaper than full LL and decides the same for
+ * nearly every input, and bails out on the first syntax error instead of recovering,
+ * without reporting it: the parser has no error listeners in this stage.
+ * Only when it bails out is the input parsed again, with full LL prediction and the usual
+ * error reporting, so a valid input SLL can't handle is still accepted, and an invalid one
+ * still fails with the same error as Expression.makeParser reports. A lexical error fails
+ * in stage one already, since prediction has nothing to do with it: parsing again would
+ * only report it a second time.
+ */
+final class AntlrParser {
+    /*
+        Abstract function:
+            Represent a parser of Expression.g4 ready for the next input
+        Rep invariant:
+            parser reads tokens from lexer;
+            between parses, lexer reads from an empty stream, so no input or token is retained,
+            and parser has no error listeners; reporters are the ones it had when it was made
+        Rep exposure:
+            all fields are private; only parse trees are returned
+        Thread safety:
+            confined to one thread by PARSERS
+     */
+    private static final ThreadLocal<AntlrParser> PARSERS = ThreadLocal.withInitial(AntlrParser::new);
+    private static final LongAdder FALLBACKS = new LongAdder();
+
+    private final ExpressionLexer lexer;
+    private final ExpressionParser parser;
+    // the console listener and the one throwing ParseCancellationException, for stage two
+    private final List<ANTLRErrorListener> reporters;
+
+    private AntlrParser() {
+        lexer = new ExpressionLexer(new ANTLRInputStream(""));
+        lexer.reportErrorsAsExceptions();
+        parser = new ExpressionParser(new CommonTokenStream(lexer));
+        parser.reportErrorsAsExceptions();
+        reporters = new ArrayList<>(parser.getErrorListeners());
+        parser.removeErrorListeners();
+    }
+
+    /**
+     * Parse an input with the parser of the calling thread.
+     * @param input expression to parse, as defined in the PS3 handout
+     * @return parse tree of input, from the root rule
+     * @throws ParseCancellationException if the input is invalid
+     */
+    static ParseTree parse(String input) {
+        return PARSERS.get().parseTree(input);
+    }
+
+    /**
+     * @return number of parses, in every thread, that SLL could not finish and that went
+     *         through full LL prediction; inputs with lexical errors never do
+     */
+    static long fallbacks() {
+        return FALLBACKS.sum();
+    }
+
+    private ParseTree parseTree(String input) {
+        try {
+            reset(input);
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.setErrorHandler(new BailErrorStrategy());
+            try {
+                return parser.root();
+            } catch (ParseCancellationException e) {
+                if (e.getCause() instanceof LexerNoViableAltException) {
+                    // the lexer has reported it already, and LL would lex the same tokens
+                    throw e;
+                }
+                // a syntax error, or an input that needs full LL: tell them apart with LL,
+                // from the first character, since the lexer is ahead of the parser
+                FALLBACKS.increment();
+                reset(input);
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                reporters.forEach(parser::addErrorListener);
+                try {
+                    return parser.root();
+                } finally {
+                    parser.removeErrorListeners();
+                }
+            }
+        } finally {
+            reset("");
+        }
+    }
+
+    /**
+     * Point the lexer and the parser at the start of input.
+     */
+    private void reset(String input) {
+        lexer.setInputStream(new ANTLRInputStream(input));
+        parser.setTokenStream(new CommonTokenStream(lexer));
+        // Parser.reset leaves the ATN state of the last parse, which would become
+        // the invoking state of the next root context
+        parser.setState(ATNState.INVALID_STATE_NUMBER);
+    }
+}
@@ -0,0 +1,165 @@
+package expressivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Batch mode of the console: runs a stream of expressions and commands in parallel.
+ *
+ * The input is split into jobs: a job starts at every line that is not a command, and runs
+ * it with the commands that follow, so every line is parsed once, by the job that runs it,
+ * and reading does no parsing at all. An invalid expression line leaves the current
+ * expression unchanged in the console, so when a job's expression lines are all invalid,
+ * its commands wait for the job before it and continue from the expression that one left;
+ * a long run of commands is cut into jobs of at most window lines the same way. Otherwise
+ * jobs don't depend on each other, so they run on a work-stealing pool, while their outputs
+ * are written in input order, one output line per input line, as the console would print
+ * them. Blank lines are skipped.
+ *
+ * At most window lines are in flight: when the window is full, reading waits for the oldest
+ * job to finish and be written, so inputs larger than memory stream through in bounded space.
+ */
+public class BatchRunner implements AutoCloseable {
+    /*
+        Abstract function:
+            Represent a batch executor running up to window lines at once on pool
+        Rep invariant:
+            window >= 1
+        Rep exposure:
+            pool is private and never returned
+     */
+    private final ForkJoinPool pool;
+    private final int window;
+
+    /**
+     * Make a batch runner.
+     * @param parallelism number of worker threads, positive
+     */
+    public BatchRunner(int parallelism) {
+        this(parallelism, 64 * parallelism);
+    }
+
+    /**
+     * Make a batch runner.
+     * @param parallelism number of worker threads, positive
+     * @param window maximum number of lines read but not yet written, positive
+     */
+    public BatchRunner(int parallelism, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.window = window;
+    }
+
+    /**
+     * Run every line of in and write their outputs to out, in input order.
+     * @param in expressions and commands, one per line
+     * @param out where to write one output line per nonblank input line
+     * @throws IOException if reading in or writing out fails
+     */
+    public void run(BufferedReader in, Writer out) throws IOException {
+        Deque<Job> inFlight = new ArrayDeque<>();
+        int inFlightLines = 0;
+        Job last = null;
+        List<String> lines = new ArrayList<>();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (!lines.isEmpty() && (!Main.isCommand(line) || lines.size() == window)) {
+                // backpressure: don't read further ahead than window lines
+                while (!inFlight.isEmpty() && inFlightLines + lines.size() > window) {
+                    inFlightLines -= write(inFlight.removeFirst().join(), out);
+                }
+                last = new Job(lines, last);
+                inFlight.addLast(last);
+                inFlightLines += lines.size();
+                pool.execute(last);
+                lines = new ArrayList<>();
+            }
+            lines.add(line);
+        }
+        if (!lines.isEmpty()) {
+            Job job = new Job(lines, last);
+            inFlight.addLast(job);
+            pool.execute(job);
+        }
+
+        while (!inFlight.isEmpty()) {
+            write(inFlight.removeFirst().join(), out);
+        }
+    }
+
+    /**
+     * Runs lines in one console session, which continues from the current expression left
+     * by the previous job if none of its expression lines is valid.
+     */
+    private static final class Job extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1;
+
+        private final List<String> lines;
+        // null once it is no longer needed, so finished jobs are not kept alive in a chain
+        private Job previous;
+        // the current expression left by this job, set before it completes
+        private Optional<Expression> current;
+
+        Job(List<String> lines, Job previous) {
+            this.lines = lines;
+            this.previous = previous;
+        }
+
+        @Override
+        protected List<String> compute() {
+            Main.Session session = new Main.Session();
+            List<String> outputs = new ArrayList<>(lines.size());
+            for (String input : lines) {
+                if (previous != null && Main.isCommand(input)) {
+                    session.resume(previous());
+                }
+                outputs.add(session.execute(input));
+                if (session.currentExpression().isPresent()) {
+                    previous = null;
+                }
+            }
+            current = previous != null ? previous() : session.currentExpression();
+            return outputs;
+        }
+
+        private Optional<Expression> previous() {
+            previous.join();
+            Optional<Expression> expression = previous.current;
+            previous = null;
+            return expression;
+        }
+    }
+
+    /**
+     * @return number of outputs written
+     */
+    private static int write(List<String> outputs, Writer out) throws IOException {
+        for (String output : outputs) {
+            out.write(output);
+            out.write(System.lineSeparator());
+        }
+        return outputs.size();
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,245 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An expression bound to a VariableLayout, for evaluating it against many environments.
+ *
+ * Binding flattens the expression into a postfix program once, with every Var resolved
+ * to its slot in the layout. Evaluation then runs the program against an int[], long[] or
+ * double[] environment indexed by slot: no map lookups, no hashing of variable names and
+ * no boxing of their values.
+ */
+public class BoundExpression {
+    /*
+        Abstract function:
+            Represent the function environment -> value of expression when each variable v
+            is bound to environment[layout.slot(v)]
+        Rep invariant:
+            opcodes and operands have the same length,
+            operands[i] is a slot of layout if opcodes[i] == VARIABLE,
+            an index into constants if opcodes[i] == NUMBER,
+            the program is a valid postfix program that never needs more than height stack entries,
+            integral iff every constant is a long
+        Rep exposure:
+            all arrays are private and never returned; layout and the constants are immutable
+     */
+    private static final byte NUMBER = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte ADD = 2;
+    private static final byte MULTIPLY = 3;
+
+    private final Expression expression;
+    private final VariableLayout layout;
+    private final byte[] opcodes;
+    private final int[] operands;
+    private final Number[] constants;
+    private final long[] longConstants;
+    private final double[] doubleConstants;
+    private final boolean integral;
+    private final int height;
+
+    private BoundExpression(Expression expression, VariableLayout layout) {
+        this.expression = expression;
+        this.layout = layout;
+
+        List<Expression> postfix = new ArrayList<>();
+        ExpressionWalker.walk(expression, postfix::add);
+        opcodes = new byte[postfix.size()];
+        operands = new int[postfix.size()];
+        List<Number> numbers = new ArrayList<>();
+
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < postfix.size(); i++) {
+            Expression node = postfix.get(i);
+            if (node instanceof Number) {
+                opcodes[i] = NUMBER;
+                operands[i] = numbers.size();
+                numbers.add((Number) node);
+                depth++;
+            }
+            else if (node instanceof Var) {
+                int slot = layout.slot(node.toString());
+                if (slot < 0) {
+                    throw new IllegalArgumentException("no slot for variable " + node + " in " + layout);
+                }
+                opcodes[i] = VARIABLE;
+                operands[i] = slot;
+                depth++;
+            }
+            else if (node instanceof Add || node instanceof Multiply) {
+                opcodes[i] = node instanceof Add ? ADD : MULTIPLY;
+                depth--;
+            }
+            else {
+                throw new IllegalArgumentException("cannot bind " + node.getClass().getSimpleName());
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        height = maxDepth;
+
+        constants = numbers.toArray(new Number[0]);
+        longConstants = new long[constants.length];
+        doubleConstants = new double[constants.length];
+        boolean allLongs = true;
+        for (int i = 0; i < constants.length; i++) {
+            allLongs &= constants[i].isLong();
+            longConstants[i] = constants[i].isLong() ? constants[i].longValue() : 0;
+            doubleConstants[i] = constants[i].doubleValue();
+        }
+        integral = allLongs;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert opcodes.length == operands.length;
+        assert height >= 1;
+    }
+
+    /**
+     * Bind an expression to a layout.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param layout layout with a slot for every variable of expression
+     * @return expression bound to layout
+     * @throws IllegalArgumentException if a variable of expression has no slot in layout,
+     *                                  or expression contains any other kind of node
+     */
+    public static BoundExpression bind(Expression expression, VariableLayout layout) {
+        return new BoundExpression(expression, layout);
+    }
+
+    /**
+     * @return the expression this was bound from
+     */
+    public Expression expression() {
+        return expression;
+    }
+
+    /**
+     * @return the layout of the environments this expression is evaluated against
+     */
+    public VariableLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Evaluate exactly, as Expression.evaluate does.
+     * @param environment value of every variable, indexed by slot; at least layout().size() elements
+     * @return the value of the expression
+     */
+    public Number evaluate(long[] environment) {
+        return evaluate(environment, null);
+    }
+
+    /**
+     * Evaluate exactly, as Expression.evaluate does.
+     * @param environment value of every variable, indexed by slot; at least layout().size() elements
+     * @return the value of the expression
+     */
+    public Number evaluate(int[] environment) {
+        return evaluate(null, environment);
+    }
+
+    /**
+     * Evaluate exactly against whichever environment is not null, widening int values as they are read,
+     * so neither evaluate method copies its environment.
+     */
+    private Number evaluate(long[] longs, int[] ints) {
+        if (integral) {
+            long[] stack = new long[height];
+            int top = 0;
+            for (int i = 0; i < opcodes.length; i++) {
+                switch (opcodes[i]) {
+                case NUMBER:
+                    stack[top++] = longConstants[operands[i]];
+                    break;
+                case VARIABLE:
+                    stack[top++] = longs != null ? longs[operands[i]] : ints[operands[i]];
+                    break;
+                case ADD: {
+                    long a = stack[top - 2];
+                    long b = stack[--top];
+                    long sum = a + b;
+                    if (((a ^ sum) & (b ^ sum)) < 0) {
+                        return evaluateExactly(longs, ints);
+                    }
+                    stack[top - 1] = sum;
+                    break;
+                }
+                default: {
+                    long a = stack[top - 2];
+                    long b = stack[--top];
+                    long product = a * b;
+                    if (Number.multiplyOverflows(a, b, product)) {
+                        return evaluateExactly(longs, ints);
+                    }
+                    stack[top - 1] = product;
+                    break;
+                }
+                }
+            }
+            return Number.of(stack[0]);
+        }
+        return evaluateExactly(longs, ints);
+    }
+
+    /**
+     * Evaluate in double arithmetic, as CompiledExpression does.
+     * @param environment value of every variable, indexed by slot; at least layout().size() elements
+     * @return the value of the expression
+     */
+    public double evaluate(double[] environment) {
+        double[] stack = new double[height];
+        int top = 0;
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+            case NUMBER:
+                stack[top++] = doubleConstants[operands[i]];
+                break;
+            case VARIABLE:
+                stack[top++] = environment[operands[i]];
+                break;
+            case ADD:
+                top--;
+                stack[top - 1] += stack[top];
+                break;
+            default:
+                top--;
+                stack[top - 1] *= stack[top];
+                break;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluate with the whole numeric tower, when a constant is not a long or a long overflows.
+     */
+    private Number evaluateExactly(long[] longs, int[] ints) {
+        NumberStack stack = new NumberStack(height);
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+            case NUMBER:
+                stack.push(constants[operands[i]]);
+                break;
+            case VARIABLE:
+                stack.push(longs != null ? longs[operands[i]] : ints[operands[i]]);
+                break;
+            case ADD:
+                stack.add();
+                break;
+            default:
+                stack.multiply();
+                break;
+            }
+        }
+        return stack.pop();
+    }
+
+    @Override
+    public String toString() {
+        return "BoundExpression[" + expression + " with " + layout + "]";
+    }
+}
@@ -0,0 +1,214 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates one expression over whole columns of variable values.
+ *
+ * The expression is flattened once into a postfix program, then every instruction runs
+ * over a block of rows at a time on primitive double[] buffers, instead of walking the
+ * tree once per row. Inputs with more than PARALLEL_THRESHOLD rows are split into
+ * fork/join tasks over disjoint row ranges.
+ */
+public class ColumnEvaluator {
+    /*
+        Abstract function:
+            Represent the function row -> value of the expression when each variable v
+            is bound to columns.get(v)[row]
+        Rep invariant:
+            opcodes, constants and inputs have the same length,
+            inputs[i] != null iff opcodes[i] == VARIABLE,
+            every column in inputs has length rows,
+            the program is a valid postfix program that never needs more than depth buffers
+        Rep exposure:
+            the column arrays are shared with the caller and are only ever read
+     */
+    private static final byte NUMBER = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte ADD = 2;
+    private static final byte MULTIPLY = 3;
+
+    /** rows evaluated per instruction, small enough for the buffers to stay in cache */
+    private static final int BLOCK_SIZE = 1024;
+    /** inputs with more rows than this are split into parallel tasks */
+    private static final int PARALLEL_THRESHOLD = 16 * BLOCK_SIZE;
+
+    private final byte[] opcodes;
+    private final double[] constants;
+    private final double[][] inputs;
+    private final int depth;
+    private final int rows;
+
+    private ColumnEvaluator(Expression expression, Map<String, double[]> columns) {
+        List<Expression> postfix = postfix(expression);
+        opcodes = new byte[postfix.size()];
+        constants = new double[postfix.size()];
+        inputs = new double[postfix.size()][];
+
+        int rowCount = -1;
+        int height = 0;
+        int maxHeight = 0;
+        for (int i = 0; i < postfix.size(); i++) {
+            Expression node = postfix.get(i);
+            if (node instanceof Number) {
+                opcodes[i] = NUMBER;
+                constants[i] = ((Number) node).doubleValue();
+                height++;
+            }
+            else if (node instanceof Var) {
+                double[] column = columns.get(node.toString());
+                if (column == null) {
+                    throw new IllegalArgumentException("no column for variable " + node);
+                }
+                if (rowCount >= 0 && column.length != rowCount) {
+                    throw new IllegalArgumentException("columns must all have the same length");
+                }
+                rowCount = column.length;
+                opcodes[i] = VARIABLE;
+                inputs[i] = column;
+                height++;
+            }
+            else {
+                opcodes[i] = node instanceof Add ? ADD : MULTIPLY;
+                height--;
+            }
+            maxHeight = Math.max(maxHeight, height);
+        }
+        depth = maxHeight;
+        if (rowCount < 0) {
+            // a constant expression: one row per row of any column, or a single row
+            rowCount = columns.isEmpty() ? 1 : columns.values().iterator().next().length;
+        }
+        rows = rowCount;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert opcodes.length == constants.length && opcodes.length == inputs.length;
+        assert depth >= 1;
+    }
+
+    /**
+     * Evaluate an expression over columns of variable values.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param columns maps each variable of expression to its values, one per row;
+     *                all the columns of the variables used must have the same length.
+     *                If expression has no variables, it is evaluated once per row of any
+     *                column, or once if there are no columns at all.
+     * @return value of expression at every row
+     * @throws IllegalArgumentException if a variable of expression has no column,
+     *         or if the columns have different lengths
+     */
+    public static double[] evaluate(Expression expression, Map<String, double[]> columns) {
+        ColumnEvaluator evaluator = new ColumnEvaluator(expression, columns);
+        double[] result = new double[evaluator.rows];
+        if (evaluator.rows > PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(evaluator.new RowRange(result, 0, evaluator.rows));
+        } else {
+            evaluator.evaluate(result, 0, evaluator.rows);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate rows [from, to) into result, one block at a time.
+     */
+    private void evaluate(double[] result, int from, int to) {
+        double[][] stack = new double[depth][Math.min(BLOCK_SIZE, to - from)];
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+            int top = -1;
+            for (int i = 0; i < opcodes.length; i++) {
+                switch (opcodes[i]) {
+                case NUMBER:
+                    Arrays.fill(stack[++top], 0, length, constants[i]);
+                    break;
+                case VARIABLE:
+                    System.arraycopy(inputs[i], start, stack[++top], 0, length);
+                    break;
+                case ADD: {
+                    double[] right = stack[top--];
+                    double[] left = stack[top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] += right[row];
+                    }
+                    break;
+                }
+                default: {
+                    double[] right = stack[top--];
+                    double[] left = stack[top];
+                    for (int row = 0; row < length; row++) {
+                        left[row] *= right[row];
+                    }
+                    break;
+                }
+                }
+            }
+            System.arraycopy(stack[0], 0, result, start, length);
+        }
+    }
+
+    /**
+     * @return the nodes of expression in postfix (left, right, operator) order
+     */
+    private static List<Expression> postfix(Expression expression) {
+        List<Expression> postfix = new ArrayList<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(expression);
+        // visit operator, right, left, then reverse into left, right, operator
+        while (!pending.isEmpty()) {
+            Expression node = pending.pop();
+            postfix.add(node);
+            if (node instanceof Add) {
+                pending.push(((Add) node).getLeft());
+                pending.push(((Add) node).getRight());
+            }
+            else if (node instanceof Multiply) {
+                pending.push(((Multiply) node).getLeft());
+                pending.push(((Multiply) node).getRight());
+            }
+            else if (!(node instanceof Number) && !(node instanceof Var)) {
+                throw new IllegalArgumentException("cannot evaluate " + node.getClass().getSimpleName());
+            }
+        }
+        Collections.reverse(postfix);
+        return postfix;
+    }
+
+    /**
+     * A fork/join task evaluating a range of rows, split in halves until it is
+     * no larger than PARALLEL_THRESHOLD.
+     */
+    private final class RowRange extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+
+        private final double[] result;
+        private final int from;
+        private final int to;
+
+        RowRange(double[] result, int from, int to) {
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                evaluate(result, from, to);
+                return;
+            }
+            // split on a block boundary so every task but the last evaluates whole blocks
+            int middle = from + ((to - from) / 2 / BLOCK_SIZE) * BLOCK_SIZE;
+            invokeAll(new RowRange(result, from, middle), new RowRange(result, middle, to));
+        }
+    }
+}
@@ -3,31 +3,26 @@
  */
 package expressivo;
 
-import expressivo.parser.ExpressionListener;
-import expressivo.parser.ExpressionParser;
-import org.antlr.v4.gui.Trees;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.tree.ErrorNode;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.antlr.v4.runtime.tree.TerminalNode;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * String-based commands provided by the expression system.
- * 
+ *
  * <p>PS3 instructions: this is a required class.
  * You MUST NOT change its name or package or the names or type signatures of existing methods.
  * You MUST NOT add fields, constructors, or instance methods.
  * You may, however, add additional static methods, or strengthen the specs of existing methods.
  */
 public class Commands {
-    
+
     /**
      * Differentiate an expression with respect to a variable.
      * @param expression the expression to differentiate
@@ -37,217 +32,336 @@ public class Commands {
      * @throws IllegalArgumentException if the expression or variable is invalid
      */
     public static String differentiate(String expression, String variable) {
-        CharStream stream = new ANTLRInputStream(expression);
-
-        ExpressionParser parser = Expression.makeParser(stream);
-        ParseTree tree = parser.root();
-
-        // *** Debugging option #1: print the tree to the console
-        //System.err.println(tree.toStringTree(parser));
-
-        // *** Debugging option #2: show the tree in a window
-        //Trees.inspect(tree, parser);
-
-        // *** Debugging option #3: walk the tree with a listener
-        //new ParseTreeWalker().walk(new Expression.PrintEverything(), tree);
-
-        DifferentiatedExpressionListener exprListener = new DifferentiatedExpressionListener(variable);
-        new ParseTreeWalker().walk(exprListener, tree);
-        return exprListener.getExpression().toString();
+        return differentiateShared(expression, variable).root().toString();
     }
 
     /**
-    A listener class that traverse the expression parse tree to evaluate to
-     a mathematically differentiated version of the current expression with respect to a variable.
-     (this is a listener in the Visitor pattern)
-
-     All grammar rules that this class obey can be found in parser\Expression.g4
+     * Differentiate an expression with respect to a variable, keeping the result as a DAG.
+     * Every distinct subtree of the expression is differentiated once, and its derivative
+     * is shared by every parent that needs it, so the DAG stays small even when the expanded
+     * derivative of deep products is huge.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return expression's derivative with respect to variable, as a DAG of shared nodes
+     * @throws IllegalArgumentException if the expression or variable is invalid
      */
-    final static class DifferentiatedExpressionListener implements ExpressionListener {
-
-        private Stack<Expression> stack = new Stack<>();
-        private String variable = "";
+    public static ExpressionDag differentiateShared(String expression, String variable) {
+        // repeated inputs skip the lexer, the parser and the tree walk entirely
+        return new ExpressionDag(differentiate(Expression.parse(expression), variable));
+    }
 
-        public DifferentiatedExpressionListener(String variable){
-            this.variable = variable;
+    /**
+     * Differentiate an expression AST with respect to a variable, without printing or parsing.
+     * Shared subtrees are differentiated once, as in differentiateShared.
+     * Large expressions are differentiated in parallel on the common ForkJoinPool, see ParallelFold.
+     * Calls are recorded in EngineMetrics.DIFFERENTIATE.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return expression's derivative with respect to variable, whose toString() is
+     *         differentiate(expression.toString(), variable)
+     * @throws IllegalArgumentException if expression contains a node that is not Add, Multiply, Number or Var
+     */
+    public static Expression differentiate(Expression expression, String variable) {
+        long start = EngineMetrics.DIFFERENTIATE.start();
+        try {
+            Expression derivative = ParallelFold.isLarge(expression)
+                    ? ParallelFold.differentiate(expression, variable, ForkJoinPool.commonPool())
+                    : differentiateSequentially(expression, variable);
+            EngineMetrics.DIFFERENTIATE.succeeded(start, 0,
+                    ExpressionWalker.size(expression), ExpressionWalker.size(derivative));
+            return derivative;
+        } catch (RuntimeException e) {
+            EngineMetrics.DIFFERENTIATE.failed(start, 0);
+            throw e;
         }
+    }
 
-        public Expression getExpression(){ return stack.get(1);}
+    /**
+     * Differentiate an expression AST on the calling thread, as differentiate(Expression, String) does.
+     */
+    static Expression differentiateSequentially(Expression expression, String variable) {
+        // interns every node, so equal subtrees are the same object and share one memo entry,
+        // and the operands copied by the product rule are shared, not duplicated
+        return differentiateSequentially(expression, variable, new ExpressionFactory());
+    }
 
-        @Override
-        public void exitRoot(ExpressionParser.RootContext context) {}
+    /**
+     * Differentiate an expression AST on the calling thread, building the derivative with factory,
+     * so derivatives built with the same factory share their equal subexpressions.
+     */
+    static Expression differentiateSequentially(Expression expression, String variable, ExpressionFactory factory) {
+        return derivative(factory.intern(expression), variable, factory);
+    }
 
-        @Override
-        public void exitExpression(ExpressionParser.ExpressionContext context){
-            // handle NUMBER case
-            if (context.NUMBER() != null){
-                stack.push(new Number(Integer.valueOf(context.NUMBER().getText())));
-                stack.push(new Number(0));
+    /**
+     * Traverse the expression AST to build a mathematically differentiated version
+     * of it with respect to a variable. The derivative of every node is memoized, so a subtree
+     * shared by several parents is differentiated once, and the walk uses an explicit stack.
+     *
+     * All the rules this method obeys follow the grammar in parser\Expression.g4
+     *
+     * @param expression an expression interned by factory
+     */
+    private static Expression derivative(Expression expression, String variable, ExpressionFactory factory) {
+        Map<Expression, Expression> derivatives = new IdentityHashMap<>();
+        Deque<Expression> stack = new ArrayDeque<>();
+
+        ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                Expression known = derivatives.get(node);
+                if (known != null) {
+                    stack.push(known);
+                    return false;
+                }
+                return true;
             }
-            // handle VARIABLE case
-            else if (context.VARIABLE() != null){
-                String varName = context.VARIABLE().getText();
 
-                if (varName.equals(variable)) {
-                    stack.push(new Var(varName, 0));
-                    stack.push(new Number(1));
+            @Override
+            public void exit(Expression node) {
+                Expression result;
+                // handle NUMBER case
+                if (node instanceof Number) {
+                    result = factory.number(0);
                 }
-                else{
-                    stack.push(new Var(varName, 0));
-                    stack.push(new Number( 0));
+                // handle VARIABLE case
+                else if (node instanceof Var) {
+                    result = factory.number(node.toString().equals(variable) ? 1 : 0);
+                }
+                // handle expression op='+' expression case
+                else if (node instanceof Add) {
+                    Expression derivativeOfRight = stack.pop();
+                    Expression derivativeOfLeft = stack.pop();
+                    result = factory.add(derivativeOfLeft, derivativeOfRight);
+                }
+                // handle expression op='*' expression case
+                else if (node instanceof Multiply) {
+                    Multiply multiply = (Multiply) node;
+                    Expression derivativeOfRight = stack.pop();
+                    Expression derivativeOfLeft = stack.pop();
+                    result = factory.add(factory.multiply(multiply.getLeft(), derivativeOfRight),
+                            factory.multiply(multiply.getRight(), derivativeOfLeft));
+                }
+                else {
+                    throw new IllegalArgumentException("cannot differentiate " + node.getClass().getSimpleName());
                 }
-            }
-            // handle expression op='+' expression case
-            else if (context.op != null && context.op.getType() == ExpressionParser.ADD){
-                List<ExpressionParser.ExpressionContext> addends = context.expression();
-
-                Expression derivativeOfRight = stack.pop();
-                Expression right = stack.pop();
-                Expression derivativeOfLeft = stack.pop();
-                Expression left = stack.pop();
-
-                stack.push(new Add(left, right));
-                stack.push(new Add(derivativeOfLeft, derivativeOfRight));
-            }
-            // handle expression op='*' expression case
-            else if (context.op != null && context.op.getType() == ExpressionParser.MUL){
-                List<ExpressionParser.ExpressionContext> addends = context.expression();
-
-                Expression derivativeOfRight = stack.pop();
-                Expression right = stack.pop();
-                Expression derivativeOfLeft = stack.pop();
-                Expression left = stack.pop();
 
-                stack.push(new Multiply(left, right));
-                stack.push(new Add(new Multiply(left, derivativeOfRight), new Multiply(right, derivativeOfLeft)));
-            }
-            else{
-                // '(' expression case: DO NOTHING
+                derivatives.put(node, result);
+                stack.push(result);
             }
-        }
-
-        @Override
-        public void enterRoot(ExpressionParser.RootContext context) {}
-
-        @Override
-        public void enterExpression(ExpressionParser.ExpressionContext context) {}
-
-        @Override
-        public void visitTerminal(TerminalNode terminalNode) {  }
-
-        @Override
-        public void visitErrorNode(ErrorNode errorNode) {  }
-
-        @Override
-        public void enterEveryRule(ParserRuleContext parserRuleContext) { }
-
-        @Override
-        public void exitEveryRule(ParserRuleContext parserRuleContext) { }
+        });
+        return stack.pop();
     }
 
 
     /**
      * Simplify an expression.
      * @param expression the expression to simplify
-     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty 
-     *         strings of letters.  The set of variables in environment is allowed to be different than the 
+     * @param environment maps variables to values.  Variables are required to be case-sensitive nonempty
+     *         strings of letters.  The set of variables in environment is allowed to be different than the
      *         set of variables actually found in expression.  Values must be nonnegative numbers.
      * @return an expression equal to the input, but after substituting every variable v that appears in both
      *         the expression and the environment with its value, environment.get(v).  If there are no
      *         variables left in this expression after substitution, it must be evaluated to a single number.
-     *         Additional simplifications to the expression may be done at the implementor's discretion.
+     *         Additional simplifications to the expression may be done at the implementor's discretion:
+     *         the result is the normal form of the expression as a polynomial, a sum of terms
+     *         coefficient*variable*...*variable with like terms collected, highest degree first.
+     *         Integer coefficients are exact, however large; coefficients involving a decimal
+     *         are doubles.
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static String simplify(String expression, Map<String,Integer> environment) {
-        CharStream stream = new ANTLRInputStream(expression);
-
-        ExpressionParser parser = Expression.makeParser(stream);
-        ParseTree tree = parser.root();
-
-        // *** Debugging option #1: print the tree to the console
-        //System.err.println(tree.toStringTree(parser));
-
-        // *** Debugging option #2: show the tree in a window
-        //Trees.inspect(tree, parser);
-
-        // *** Debugging option #3: walk the tree with a listener
-        //new ParseTreeWalker().walk(new Expression.PrintEverything(), tree);
-
-        SimplifiedExpressionListener exprListener = new SimplifiedExpressionListener(environment);
-        new ParseTreeWalker().walk(exprListener, tree);
-
-        return exprListener.getExpression().toString();
+        // repeated inputs skip the lexer, the parser and the tree walk entirely
+        return simplify(Expression.parse(expression), environment).toString();
     }
 
     /**
-    A listener class that traverse the expression parse tree to evaluate to a simplification
-     of the current expression by replacing variables with integer value.
-     (this is a listener in the Visitor pattern)
-
-     All grammar rules that this class obey can be found in parser\Expression.g4
+     * Simplify an expression AST, without printing or parsing.
+     * Large expressions are folded in parallel on the common ForkJoinPool, see ParallelFold.
+     * Calls are recorded in EngineMetrics.SIMPLIFY.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as in simplify(String, Map)
+     * @return the simplified expression, whose toString() is simplify(expression.toString(), environment)
+     * @throws IllegalArgumentException if expression contains a node that is not Add, Multiply, Number or Var
      */
-    final static class SimplifiedExpressionListener implements ExpressionListener {
-
-        private Stack<Expression> stack = new Stack<>();
-        private Map<String,Integer> environment;
-
-        public SimplifiedExpressionListener(Map<String,Integer> environment){
-            this.environment = environment;
+    public static Expression simplify(Expression expression, Map<String,Integer> environment) {
+        long start = EngineMetrics.SIMPLIFY.start();
+        try {
+            // the normal form folds constants, drops *1 and +0 and collects like terms,
+            // and leaves the variables missing from environment symbolic
+            Expression simplified = ParallelFold.polynomial(expression, environment, ForkJoinPool.commonPool())
+                    .toExpression();
+            EngineMetrics.SIMPLIFY.succeeded(start, 0,
+                    ExpressionWalker.size(expression), ExpressionWalker.size(simplified));
+            return simplified;
+        } catch (RuntimeException e) {
+            EngineMetrics.SIMPLIFY.failed(start, 0);
+            throw e;
         }
+    }
 
-        public Expression getExpression(){ return stack.get(0);}
 
-        @Override
-        public void exitRoot(ExpressionParser.RootContext context) {}
+    /**
+     * Differentiate an expression with respect to each of its variables.
+     * @param expression the expression to differentiate
+     * @return maps every variable of expression, in order of first appearance, to the derivative
+     *         of expression with respect to it. Each one is a valid expression equal to the
+     *         derivative, but not necessarily in the same form as differentiate returns.
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Map<String, String> gradient(String expression) {
+        Map<String, String> partials = new LinkedHashMap<>();
+        for (Map.Entry<String, Expression> partial : gradient(Expression.parse(expression)).entrySet()) {
+            partials.put(partial.getKey(), partial.getValue().toString());
+        }
+        return partials;
+    }
 
-        @Override
-        public void exitExpression(ExpressionParser.ExpressionContext context){
-            // handle NUMBER case
-            if (context.NUMBER() != null){
-                stack.push(new Number(Integer.valueOf(context.NUMBER().getText())));
+    /**
+     * Differentiate an expression AST with respect to each of its variables, in one reverse-mode pass.
+     * Every distinct node gets one adjoint, the derivative of the root with respect to that node,
+     * built from the adjoints of its parents; the adjoint of a variable is its partial derivative.
+     * Adjoints are shared by all the partials that need them, so the whole gradient costs about
+     * as much as a single differentiate.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return maps every variable of expression, in order of first appearance, to the derivative
+     *         of expression with respect to it
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static Map<String, Expression> gradient(Expression expression) {
+        ExpressionFactory factory = new ExpressionFactory();
+        List<Expression> nodes = distinctNodes(factory.intern(expression));
+        Expression one = factory.number(1);
+
+        // parents come after their operands in nodes, so going backwards every node is
+        // reached after all its parents have added their contributions to its adjoint
+        Map<Expression, Expression> adjoints = new IdentityHashMap<>();
+        adjoints.put(nodes.get(nodes.size() - 1), one);
+        Map<String, Expression> partials = new LinkedHashMap<>();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Expression node = nodes.get(i);
+            Expression adjoint = adjoints.get(node);
+            if (node instanceof Add) {
+                Add add = (Add) node;
+                accumulate(adjoints, add.getLeft(), adjoint, factory);
+                accumulate(adjoints, add.getRight(), adjoint, factory);
             }
-            // handle VARIABLE case
-            else if (context.VARIABLE() != null){
-                String varName = context.VARIABLE().getText();
-                stack.push(new Number(environment.get(varName)));
-
+            else if (node instanceof Multiply) {
+                Multiply multiply = (Multiply) node;
+                accumulate(adjoints, multiply.getLeft(), product(adjoint, multiply.getRight(), one, factory), factory);
+                accumulate(adjoints, multiply.getRight(), product(adjoint, multiply.getLeft(), one, factory), factory);
             }
-            // handle expression op='+' expression case
-            else if (context.op != null && context.op.getType() == ExpressionParser.ADD){
-                Expression right = stack.pop();
-                Expression left = stack.pop();
-
-                stack.push(new Number(left.value() + right.value()));
+            else if (node instanceof Var) {
+                partials.put(node.toString(), adjoint);
             }
-            // handle expression op='*' expression case
-            else if (context.op != null && context.op.getType() == ExpressionParser.MUL){
-                Expression right = stack.pop();
-                Expression left = stack.pop();
-
-                stack.push(new Number(left.value() * right.value()));
+            else if (!(node instanceof Number)) {
+                throw new IllegalArgumentException("cannot differentiate " + node.getClass().getSimpleName());
             }
-            else{
-                // '(' expression ')' case: DO NOTHING
+        }
+
+        // report the variables in order of first appearance, like VariableLayout.of, but without
+        // walking shared nodes again: leaves come in the same order in postorder as in preorder,
+        // and a shared subexpression is skipped only after its first appearance was walked
+        Map<String, Expression> ordered = new LinkedHashMap<>();
+        for (Expression node : nodes) {
+            if (node instanceof Var) {
+                ordered.put(node.toString(), partials.get(node.toString()));
             }
         }
+        return ordered;
+    }
+
+    /**
+     * Evaluate the gradient of an expression at a point, in one forward and one reverse pass
+     * over its distinct nodes, without building any derivative expression.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param layout layout with a slot for every variable of expression
+     * @param point value of every variable, indexed by slot
+     * @return the partial derivative of expression at point with respect to every variable
+     *         of layout, indexed by slot; 0 for the variables that are not in expression
+     * @throws IllegalArgumentException if a variable of expression has no slot in layout
+     */
+    public static double[] gradient(Expression expression, VariableLayout layout, double[] point) {
+        return FlatExpression.of(new ExpressionFactory().intern(expression)).gradient(layout, point);
+    }
 
-        @Override
-        public void enterRoot(ExpressionParser.RootContext context) {}
+    /**
+     * Test whether two expressions are algebraically equivalent.
+     * @param a an expression
+     * @param b an expression
+     * @return true if a and b are equal as polynomials, every number read as the decimal it is
+     *         written as; false if they are not, except with probability at most 10^-12
+     * @throws IllegalArgumentException if an expression is invalid
+     */
+    public static boolean equivalent(String a, String b) {
+        return equivalent(Expression.parse(a), Expression.parse(b));
+    }
 
-        @Override
-        public void enterExpression(ExpressionParser.ExpressionContext context) {}
+    /**
+     * Test whether two expression ASTs are algebraically equivalent, with an error probability
+     * of at most 10^-12, as equivalent(a, b, errorBound) does.
+     * @param a expression made of Add, Multiply, Number and Var nodes
+     * @param b expression made of Add, Multiply, Number and Var nodes
+     * @return true if a and b are equivalent; if they are not, false except with probability
+     *         at most 10^-12
+     * @throws IllegalArgumentException as equivalent(a, b, errorBound) does
+     */
+    public static boolean equivalent(Expression a, Expression b) {
+        return equivalent(a, b, ModularEquivalence.DEFAULT_ERROR_BOUND);
+    }
 
-        @Override
-        public void visitTerminal(TerminalNode terminalNode) {  }
+    /**
+     * Test whether two expression ASTs are algebraically equivalent, without expanding them:
+     * both are evaluated at random points modulo random primes, as many times as errorBound
+     * requires, see ModularEquivalence. Takes time linear in the number of distinct nodes.
+     * @param a expression made of Add, Multiply, Number and Var nodes
+     * @param b expression made of Add, Multiply, Number and Var nodes
+     * @param errorBound probability, in (0, 1), of reporting inequivalent expressions equivalent
+     * @return true if a and b are equal as polynomials, every number read as the decimal it is
+     *         written as; false if they are not, except with probability at most errorBound
+     * @throws IllegalArgumentException if errorBound is not in (0, 1), if a or b contains any other
+     *         kind of node, or if their degree is too high, about 2^30, to compare by evaluation
+     */
+    public static boolean equivalent(Expression a, Expression b, double errorBound) {
+        return ModularEquivalence.equivalent(a, b, errorBound, ThreadLocalRandom.current());
+    }
 
-        @Override
-        public void visitErrorNode(ErrorNode errorNode) {  }
+    /**
+     * @return the distinct nodes of expression, every operand before its parents, the root last
+     */
+    private static List<Expression> distinctNodes(Expression expression) {
+        List<Expression> nodes = new ArrayList<>();
+        Map<Expression, Boolean> visited = new IdentityHashMap<>();
+        ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                return visited.put(node, Boolean.TRUE) == null;
+            }
 
-        @Override
-        public void enterEveryRule(ParserRuleContext parserRuleContext) { }
+            @Override
+            public void exit(Expression node) {
+                nodes.add(node);
+            }
+        });
+        return nodes;
+    }
 
-        @Override
-        public void exitEveryRule(ParserRuleContext parserRuleContext) { }
+    /**
+     * Add contribution to the adjoint of node; numbers need no adjoint.
+     */
+    private static void accumulate(Map<Expression, Expression> adjoints, Expression node,
+                                   Expression contribution, ExpressionFactory factory) {
+        if (node instanceof Number) {
+            return;
+        }
+        Expression previous = adjoints.get(node);
+        adjoints.put(node, previous == null ? contribution : factory.add(previous, contribution));
+    }
+
+    /**
+     * @return adjoint*operand, leaving out a factor of one
+     */
+    private static Expression product(Expression adjoint, Expression operand, Expression one, ExpressionFactory factory) {
+        return adjoint == one ? operand : factory.multiply(adjoint, operand);
     }
-    
 }
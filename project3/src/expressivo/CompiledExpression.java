@@ -0,0 +1,170 @@
+package expressivo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression compiled into a single MethodHandle chain for repeated evaluation.
+ *
+ * Each variable of the expression is assigned a slot, in order of first appearance
+ * read left-to-right, and evaluate(slots) reads the value of every variable from its slot.
+ * The handle tree mirrors the Add/Multiply/Number/Var tree, but is built once, so evaluation
+ * does no parsing, no map lookups, no boxing and no virtual value() calls, and the JIT
+ * can inline the whole polynomial into one method. It is built on an explicit stack, with one
+ * handle per distinct node. Invoking it takes a few stack frames per level, so expressions
+ * deeper than MAX_HEIGHT are evaluated by a BoundExpression instead, which needs none.
+ */
+public class CompiledExpression {
+    /*
+        Abstract function:
+            Represent the function slots -> value of the expression when
+            variables.get(i) is bound to slots[i]
+        Rep invariant:
+            evaluator has type (double[])double,
+            variables contains no duplicates
+        Rep exposure:
+            variables is unmodifiable, MethodHandles are immutable
+     */
+    private static final MethodHandle ADD;
+    private static final MethodHandle MULTIPLY;
+    private static final MethodHandle SLOT = MethodHandles.arrayElementGetter(double[].class);
+    private static final MethodType EVALUATOR_TYPE = MethodType.methodType(double.class, double[].class);
+    private static final MethodHandle BOUND_EVALUATE;
+    /** deeper expressions are evaluated without a handle chain, see compile */
+    static final int MAX_HEIGHT = 1000;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType binary = MethodType.methodType(double.class, double.class, double.class);
+        try {
+            ADD = lookup.findStatic(CompiledExpression.class, "add", binary);
+            MULTIPLY = lookup.findStatic(CompiledExpression.class, "multiply", binary);
+            BOUND_EVALUATE = lookup.findVirtual(BoundExpression.class, "evaluate", EVALUATOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final List<String> variables;
+    private final MethodHandle evaluator;
+
+    private CompiledExpression(List<String> variables, MethodHandle evaluator) {
+        this.variables = Collections.unmodifiableList(variables);
+        this.evaluator = evaluator;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert evaluator.type().equals(EVALUATOR_TYPE);
+    }
+
+    /**
+     * Compile an expression.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return the compiled form of expression
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static CompiledExpression compile(Expression expression) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        // the height of every distinct node walked so far, by identity, and its handle while
+        // the expression is shallow enough, so a shared subexpression is compiled once
+        Map<Expression, Integer> heights = new IdentityHashMap<>();
+        Map<Expression, MethodHandle> handles = new IdentityHashMap<>();
+        boolean[] tooDeep = { false };
+        ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                return !heights.containsKey(node);
+            }
+
+            @Override
+            public void exit(Expression node) {
+                int height = 1;
+                MethodHandle handle = null;
+                if (node instanceof Number) {
+                    MethodHandle constant = MethodHandles.constant(double.class, ((Number) node).doubleValue());
+                    handle = MethodHandles.dropArguments(constant, 0, double[].class);
+                }
+                else if (node instanceof Var) {
+                    String name = node.toString();
+                    Integer slot = slots.get(name);
+                    if (slot == null) {
+                        slot = slots.size();
+                        slots.put(name, slot);
+                    }
+                    handle = MethodHandles.insertArguments(SLOT, 1, slot);
+                }
+                else if (node instanceof Add || node instanceof Multiply) {
+                    Expression left = ExpressionWalker.left(node);
+                    Expression right = ExpressionWalker.right(node);
+                    height += Math.max(heights.get(left), heights.get(right));
+                    tooDeep[0] |= height > MAX_HEIGHT;
+                    if (!tooDeep[0]) {
+                        handle = combine(node instanceof Add ? ADD : MULTIPLY, handles.get(left), handles.get(right));
+                    }
+                }
+                else {
+                    throw new IllegalArgumentException("cannot compile " + node.getClass().getSimpleName());
+                }
+                heights.put(node, height);
+                handles.put(node, handle);
+            }
+        });
+
+        List<String> variables = new ArrayList<>(slots.keySet());
+        if (tooDeep[0]) {
+            // invoking the handle chain takes a few stack frames per level, so evaluate on
+            // the explicit stack of a BoundExpression instead, with the same slots
+            MethodHandle evaluator = BOUND_EVALUATE.bindTo(expression.bind(VariableLayout.of(variables)));
+            return new CompiledExpression(variables, evaluator);
+        }
+        return new CompiledExpression(variables, handles.get(expression));
+    }
+
+    /**
+     * @return the handle slots -> operator(left(slots), right(slots))
+     */
+    private static MethodHandle combine(MethodHandle operator, MethodHandle left, MethodHandle right) {
+        // (double[], double[])double, then feed the same slots array to both operands
+        MethodHandle spread = MethodHandles.filterArguments(operator, 0, left, right);
+        return MethodHandles.permuteArguments(spread, EVALUATOR_TYPE, 0, 0);
+    }
+
+    private static double add(double left, double right) {
+        return left + right;
+    }
+
+    private static double multiply(double left, double right) {
+        return left * right;
+    }
+
+    /**
+     * @return the variables of the expression, the i-th one being read from slot i
+     */
+    public List<String> variables() {
+        return variables;
+    }
+
+    /**
+     * Evaluate the expression.
+     * @param slots value of every variable, indexed as in variables();
+     *              must have at least variables().size() elements
+     * @return the value of the expression
+     */
+    public double evaluate(double[] slots) {
+        try {
+            return (double) evaluator.invokeExact(slots);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of patterns, for finding the patterns that may match an expression without trying
+ * them one by one.
+ *
+ * A pattern is an expression whose variables match any subexpression. It is stored as the path
+ * of its nodes in preorder, one edge per node: Add, Multiply, a number, or * for a variable.
+ * Patterns with a common prefix share its path, so a lookup walks the expression along the
+ * tree once, following at each step the edge of the current node and the * edge, which skips
+ * the whole subexpression. Its cost depends on the size of the patterns and of the expression
+ * near the root, not on the number of patterns.
+ *
+ * Candidates are imperfect filters: a pattern using a variable twice, like x + x, is found for
+ * any sum, so callers check the candidates with a real match.
+ *
+ * @param <V> type of the value stored with each pattern
+ */
+class DiscriminationTree<V> {
+    /*
+        Abstract function:
+            Represent the multiset of (pattern, value) pairs inserted, where the path from root
+            to a node spells the preorder keys of the patterns whose values are stored there
+        Rep invariant:
+            every path from root to a node with values spells the preorder of a whole pattern
+        Rep exposure:
+            nodes are private and never returned; values are returned, but not the lists holding them
+     */
+
+    /** key of a variable of a pattern, which matches any subexpression */
+    private static final Object ANY = new Object() {
+        @Override
+        public String toString() {
+            return "*";
+        }
+    };
+
+    private static final class Node<V> {
+        private final Map<Object, Node<V>> children = new HashMap<>();
+        private final List<V> values = new ArrayList<>();
+    }
+
+    /** pending subexpressions of a lookup, the next one first */
+    private static final class Pending {
+        private final Expression expression;
+        private final Pending next;
+
+        private Pending(Expression expression, Pending next) {
+            this.expression = expression;
+            this.next = next;
+        }
+    }
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Add a pattern.
+     * @param pattern expression made of Add, Multiply, Number and Var nodes;
+     *                every variable matches any subexpression
+     * @param value value to return for pattern
+     */
+    void insert(Expression pattern, V value) {
+        List<Object> keys = new ArrayList<>();
+        ExpressionWalker.walk(pattern, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                keys.add(node instanceof Var ? ANY : key(node));
+                return true;
+            }
+
+            @Override
+            public void exit(Expression node) {
+            }
+        });
+
+        Node<V> node = root;
+        for (Object key : keys) {
+            node = node.children.computeIfAbsent(key, k -> new Node<>());
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Find the patterns that may match an expression.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param candidates list to which the value of every pattern that may match expression is added;
+     *                   every pattern that does match it is there
+     */
+    void candidates(Expression expression, List<V> candidates) {
+        candidates(root, new Pending(expression, null), candidates);
+    }
+
+    // recursion is bounded by the depth of the tree, the size of the largest pattern
+    private void candidates(Node<V> node, Pending pending, List<V> candidates) {
+        if (pending == null) {
+            candidates.addAll(node.values);
+            return;
+        }
+
+        Node<V> any = node.children.get(ANY);
+        if (any != null) {
+            candidates(any, pending.next, candidates);
+        }
+
+        Expression expression = pending.expression;
+        Node<V> exact = node.children.get(key(expression));
+        if (exact != null) {
+            Pending next = pending.next;
+            if (expression instanceof Add || expression instanceof Multiply) {
+                next = new Pending(ExpressionWalker.left(expression),
+                        new Pending(ExpressionWalker.right(expression), next));
+            }
+            candidates(exact, next, candidates);
+        }
+    }
+
+    /**
+     * @return the key of a node of an expression: its class for Add, Multiply and Var, the number itself
+     *         for a Number; a variable of an expression has no edge of its own, only patterns' * edges
+     */
+    private static Object key(Expression node) {
+        return node instanceof Number ? node : node.getClass();
+    }
+}
@@ -0,0 +1,187 @@
+package expressivo;
+
+/**
+ * Evaluates an expression and its derivative with respect to one variable at given points,
+ * by forward-mode automatic differentiation, without building any derivative expression.
+ *
+ * Every node carries a dual number (value, derivative) held in two primitive doubles:
+ * a Number is (c, 0), the variable is (x, 1), other variables are (v, 0), and
+ *   (a, a') + (b, b') = (a + b, a' + b')
+ *   (a, a') * (b, b') = (a*b, a*b' + b*a')
+ * which is the product rule of Commands.differentiate applied to values instead of trees.
+ * The expression is flattened once into its distinct nodes, so each shared node is
+ * computed once per point, and the derivative costs about as much as the value.
+ */
+public class DualEvaluator {
+    /*
+        Abstract function:
+            Represent the function point -> (f(point), df/dvariable(point)) where f is the
+            expression whose distinct nodes are (adds, lefts, rights) in postfix order,
+            with leaf i worth point[leafSlots[i]] if leafSlots[i] >= 0, else constants[i]
+        Rep invariant:
+            adds, lefts and rights have the same length,
+            references are node indexes before their parent, or ~i for leaf i,
+            leafSlots, constants and seeds have one element per leaf, seeds[i] is 1 for
+            the leaf of the variable and 0 for the others
+        Rep exposure:
+            all arrays are private and never returned; layout is immutable
+     */
+    private final VariableLayout layout;
+    private final boolean[] adds;
+    private final int[] lefts;
+    private final int[] rights;
+    private final int root;
+    private final int[] leafSlots;
+    private final double[] constants;
+    private final double[] seeds;
+
+    /**
+     * The value and the derivative of an expression at one point.
+     */
+    public static final class Dual {
+        private final double value;
+        private final double derivative;
+
+        Dual(double value, double derivative) {
+            this.value = value;
+            this.derivative = derivative;
+        }
+
+        /**
+         * @return f(point)
+         */
+        public double value() {
+            return value;
+        }
+
+        /**
+         * @return df/dvariable(point)
+         */
+        public double derivative() {
+            return derivative;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + value + ", " + derivative + ")";
+        }
+    }
+
+    private DualEvaluator(FlatExpression expression, VariableLayout layout, String variable) {
+        this.layout = layout;
+        int nodes = expression.nodeCount();
+        adds = new boolean[nodes];
+        lefts = new int[nodes];
+        rights = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            adds[i] = expression.isAdd(i);
+            lefts[i] = expression.left(i);
+            rights[i] = expression.right(i);
+        }
+        root = expression.root();
+
+        int leaves = expression.leafCount();
+        leafSlots = new int[leaves];
+        constants = new double[leaves];
+        seeds = new double[leaves];
+        for (int i = 0; i < leaves; i++) {
+            Expression leaf = expression.leaf(i);
+            if (leaf instanceof Var) {
+                leafSlots[i] = layout.slot(leaf.toString());
+                if (leafSlots[i] < 0) {
+                    throw new IllegalArgumentException("no slot for variable " + leaf + " in " + layout);
+                }
+                seeds[i] = leaf.toString().equals(variable) ? 1 : 0;
+            } else {
+                leafSlots[i] = -1;
+                constants[i] = ((Number) leaf).doubleValue();
+            }
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert adds.length == lefts.length && lefts.length == rights.length;
+        assert leafSlots.length == constants.length && constants.length == seeds.length;
+    }
+
+    /**
+     * Prepare the evaluation of an expression and its derivative.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param layout layout with a slot for every variable of expression
+     * @param variable the variable to differentiate by; if it is not in expression,
+     *                 the derivative is 0 everywhere
+     * @return an evaluator of expression and its derivative with respect to variable
+     * @throws IllegalArgumentException if a variable of expression has no slot in layout
+     */
+    public static DualEvaluator of(Expression expression, VariableLayout layout, String variable) {
+        // interning shares equal subtrees, so each one is computed once per point
+        FlatExpression flat = FlatExpression.of(new ExpressionFactory().intern(expression));
+        return new DualEvaluator(flat, layout, variable);
+    }
+
+    /**
+     * @return the layout of the points this evaluator takes
+     */
+    public VariableLayout layout() {
+        return layout;
+    }
+
+    /**
+     * Evaluate at one point.
+     * @param point value of every variable, indexed by slot of layout()
+     * @return f(point) and df/dvariable(point)
+     */
+    public Dual evaluate(double[] point) {
+        double[] values = new double[lefts.length];
+        double[] derivatives = new double[lefts.length];
+        run(point, values, derivatives);
+        return root >= 0 ? new Dual(values[root], derivatives[root]) : new Dual(leafValue(~root, point), seeds[~root]);
+    }
+
+    /**
+     * Evaluate at many points, allocating nothing per point.
+     * @param points value of every variable at every point, points[p] indexed by slot of layout()
+     * @param values where to store f(points[p]) at index p; at least points.length elements
+     * @param derivatives where to store df/dvariable(points[p]) at index p; at least points.length elements
+     */
+    public void evaluate(double[][] points, double[] values, double[] derivatives) {
+        double[] nodeValues = new double[lefts.length];
+        double[] nodeDerivatives = new double[lefts.length];
+        for (int p = 0; p < points.length; p++) {
+            run(points[p], nodeValues, nodeDerivatives);
+            if (root >= 0) {
+                values[p] = nodeValues[root];
+                derivatives[p] = nodeDerivatives[root];
+            } else {
+                values[p] = leafValue(~root, points[p]);
+                derivatives[p] = seeds[~root];
+            }
+        }
+    }
+
+    /**
+     * Compute the dual number of every node at point, operands before parents.
+     */
+    private void run(double[] point, double[] values, double[] derivatives) {
+        for (int i = 0; i < lefts.length; i++) {
+            int left = lefts[i];
+            int right = rights[i];
+            double a = left >= 0 ? values[left] : leafValue(~left, point);
+            double da = left >= 0 ? derivatives[left] : seeds[~left];
+            double b = right >= 0 ? values[right] : leafValue(~right, point);
+            double db = right >= 0 ? derivatives[right] : seeds[~right];
+            if (adds[i]) {
+                values[i] = a + b;
+                derivatives[i] = da + db;
+            } else {
+                values[i] = a * b;
+                derivatives[i] = a * db + b * da;
+            }
+        }
+    }
+
+    private double leafValue(int leaf, double[] point) {
+        return leafSlots[leaf] >= 0 ? point[leafSlots[leaf]] : constants[leaf];
+    }
+}
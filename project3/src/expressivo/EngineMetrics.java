@@ -0,0 +1,121 @@
+package expressivo;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the expression engine: one OperationMetrics each for Expression.parse,
+ * Commands.differentiate and Commands.simplify, always on, plus the ways to read them:
+ * JMX MBeans and a periodic text dump.
+ *
+ * Only the entry points taking an AST are instrumented for differentiate and simplify,
+ * the text ones go through them and through Expression.parse, so every call is counted once.
+ */
+public class EngineMetrics {
+
+    /** metrics of Expression.parse(String) */
+    public static final OperationMetrics PARSE = new OperationMetrics("parse");
+    /** metrics of Commands.differentiate(Expression, String) */
+    public static final OperationMetrics DIFFERENTIATE = new OperationMetrics("differentiate");
+    /** metrics of Commands.simplify(Expression, Map) */
+    public static final OperationMetrics SIMPLIFY = new OperationMetrics("simplify");
+
+    private static final List<OperationMetrics> ALL =
+            Collections.unmodifiableList(Arrays.asList(PARSE, DIFFERENTIATE, SIMPLIFY));
+
+    /** domain of the MBeans, each named DOMAIN:type=Operation,name=NAME */
+    public static final String DOMAIN = "expressivo";
+
+    private EngineMetrics() {
+    }
+
+    /**
+     * @return the metrics of every instrumented operation
+     */
+    public static List<OperationMetrics> all() {
+        return ALL;
+    }
+
+    /**
+     * Set how many calls are made for each sampled one, for every operation.
+     * @param interval as in OperationMetrics.setSampleInterval
+     * @throws IllegalArgumentException if interval is negative
+     */
+    public static void setSampleInterval(int interval) {
+        for (OperationMetrics metrics : ALL) {
+            metrics.setSampleInterval(interval);
+        }
+    }
+
+    /**
+     * Register an MBean for every operation in the platform MBean server,
+     * unless it is already registered.
+     * @throws IllegalStateException if the MBean server refuses them
+     */
+    public static synchronized void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (OperationMetrics metrics : ALL) {
+                ObjectName name = objectName(metrics);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register the metrics MBeans", e);
+        }
+    }
+
+    /**
+     * @return the JMX name of the MBean of metrics
+     */
+    public static ObjectName objectName(OperationMetrics metrics) {
+        try {
+            return new ObjectName(DOMAIN + ":type=Operation,name=" + metrics.name());
+        } catch (JMException e) {
+            throw new AssertionError("operation names are valid in object names", e);
+        }
+    }
+
+    /**
+     * @return the metrics of every operation, one line each
+     */
+    public static String dump() {
+        StringBuilder result = new StringBuilder();
+        for (OperationMetrics metrics : ALL) {
+            result.append(metrics).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Print dump() to out every period, on a daemon thread, until the returned future is cancelled.
+     * @param out where to print
+     * @param period time between two dumps, positive
+     * @param unit unit of period
+     * @return the scheduled dumps
+     */
+    public static ScheduledFuture<?> dumpEvery(PrintStream out, long period, TimeUnit unit) {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "expressivo-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the timer has no other job: it stops accepting new ones right away,
+        // and its thread ends once the dumps are cancelled
+        timer.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+        timer.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?> dumps = timer.scheduleAtFixedRate(() -> out.print(dump()), period, period, unit);
+        timer.shutdown();
+        return dumps;
+    }
+}
@@ -8,13 +8,16 @@ import expressivo.parser.ExpressionListener;
 import expressivo.parser.ExpressionParser;
 import org.antlr.v4.gui.Trees;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An immutable data type representing a polynomial expression of:
@@ -36,15 +39,45 @@ public interface Expression {
     
     /**
      * Parse an expression.
+     * Inputs parsed before are answered from ParseCache.shared() without running the parser;
+     * other ones are parsed by the PRECEDENCE engine, whose nesting depth is only limited by the heap.
+     * Calls are recorded in EngineMetrics.PARSE.
      * @param input expression to parse, as defined in the PS3 handout.
      * @return expression AST for the input
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static Expression parse(String input) {
-        CharStream stream = new ANTLRInputStream(input);
+        long start = EngineMetrics.PARSE.start();
+        try {
+            Expression expression = ParseCache.shared().parse(input);
+            EngineMetrics.PARSE.succeeded(start, input.length(), 0, ExpressionWalker.size(expression));
+            return expression;
+        } catch (IllegalArgumentException e) {
+            EngineMetrics.PARSE.failed(start, input.length());
+            throw e;
+        }
+    }
+
+    /**
+     * Parse an expression with a chosen parser implementation, bypassing the shared ParseCache.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @param engine parser implementation to use; all engines build equal ASTs
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input, ParserEngine engine) {
+        if (engine == ParserEngine.PRECEDENCE) {
+            return PrecedenceParser.parse(input);
+        }
 
-        ExpressionParser parser = makeParser(stream);
-        ParseTree tree = parser.root();
+        // the parser of this thread, reset for input, tries SLL prediction before full LL
+        ParseTree tree;
+        try {
+            tree = AntlrParser.parse(input);
+        } catch (ParseCancellationException e) {
+            // the same exception as the PRECEDENCE engine throws, with ANTLR's message
+            throw new IllegalArgumentException(e.getMessage() + " in \"" + input + "\"", e);
+        }
 
 
         // *** Debugging option #1: print the tree to the console
@@ -56,8 +89,9 @@ public interface Expression {
         // *** Debugging option #3: walk the tree with a listener
         //new ParseTreeWalker().walk(new PrintEverything(), tree);
 
+        // the parse tree of a long chain of '+' or '*' is as deep as the chain is long
         ExpressionListener exprListener = new ExpressionListener();
-        new ParseTreeWalker().walk(exprListener, tree);
+        new IterativeParseTreeWalker().walk(exprListener, tree);
         return exprListener.getExpression();
     }
 
@@ -122,6 +156,7 @@ public interface Expression {
     final class ExpressionListener implements expressivo.parser.ExpressionListener{
 
         private Stack<Expression> stack = new Stack<>();
+        private final ExpressionFactory factory = new ExpressionFactory();
 
         public Expression getExpression(){ return stack.get(0);}
 
@@ -132,26 +167,26 @@ public interface Expression {
         public void exitExpression(ExpressionParser.ExpressionContext context){
             // handle NUMBER case
             if (context.NUMBER() != null){
-                stack.push(new Number(Integer.valueOf(context.NUMBER().getText())));
+                stack.push(factory.number(Number.parse(context.NUMBER().getText())));
             }
             // handle VARIABLE case
             else if (context.VARIABLE() != null){
                 String varName = context.VARIABLE().getText();
-                stack.push(new Var(varName, 0));
+                stack.push(factory.variable(varName));
             }
             // handle expression op='+' expression case
             else if (context.op != null && context.op.getType() == ExpressionParser.ADD){
                 Expression right = stack.pop();
                 Expression left = stack.pop();
 
-                stack.push(new Add(left, right));
+                stack.push(factory.add(left, right));
             }
             // handle expression op='*' expression case
             else if (context.op != null && context.op.getType() == ExpressionParser.MUL){
                 Expression right = stack.pop();
                 Expression left = stack.pop();
 
-                stack.push(new Multiply(left, right));
+                stack.push(factory.multiply(left, right));
             }
             // handle '(' expression ')' case
             else{
@@ -204,5 +239,53 @@ public interface Expression {
     // TODO more instance methods
 
 
+    /**
+     * @return the value of this expression, with variables worth 0
+     * @throws ArithmeticException if the value is not an integer in the range of int
+     */
     public int value();
+
+    /**
+     * Evaluate this expression exactly, with variables worth 0.
+     * Sums and products of longs stay longs until they overflow, then they are promoted
+     * to BigInteger; anything involving a double is a double, or a BigDecimal if it
+     * would overflow a double. While every intermediate value fits a long or a double,
+     * evaluation allocates nothing per node. Large expressions are evaluated in parallel
+     * on the common ForkJoinPool, see ParallelFold.
+     * @return the value of this expression
+     */
+    public default Number evaluate() {
+        return ParallelFold.evaluate(this, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compile this expression for fast repeated evaluation.
+     * @return a compiled form of this expression that evaluates it against
+     *         variable values stored in a double[]
+     */
+    public default CompiledExpression compile() {
+        return CompiledExpression.compile(this);
+    }
+
+    /**
+     * Bind this expression to a variable layout, for repeated evaluation against
+     * environments indexed by slot.
+     * @param layout layout with a slot for every variable of this expression
+     * @return this expression bound to layout
+     * @throws IllegalArgumentException if a variable of this expression has no slot in layout
+     */
+    public default BoundExpression bind(VariableLayout layout) {
+        return BoundExpression.bind(this, layout);
+    }
+
+    /**
+     * Evaluate this expression over columns of variable values.
+     * @param columns maps each variable of this expression to its values, one per row;
+     *                all these columns must have the same length
+     * @return value of this expression at every row
+     * @throws IllegalArgumentException if a variable has no column or the columns have different lengths
+     */
+    public default double[] evaluate(Map<String, double[]> columns) {
+        return ColumnEvaluator.evaluate(this, columns);
+    }
 }
@@ -0,0 +1,161 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An expression viewed as a DAG: a node object referenced from several parents
+ * is a single shared node, instead of one copy per occurrence as in the expanded tree.
+ *
+ * ExpressionDag.of is a common subexpression elimination pass: it merges every repeated
+ * subtree into one shared node. A DAG is evaluated in one pass over its distinct nodes,
+ * so a shared node is computed once however many parents it has, and it can be printed
+ * with let-bound temporaries for the shared nodes.
+ */
+public class ExpressionDag {
+    /*
+        Abstract function:
+            Represent the expression root, stored as the DAG of its distinct node objects
+        Rep invariant:
+            1 <= nodeCount <= treeSize
+        Rep exposure:
+            All fields are private, root is immutable, flat is never returned
+        Thread safety:
+            flat is computed lazily with a benign race: every thread computes an equal value
+     */
+    private final Expression root;
+    private final int nodeCount;
+    private final long treeSize;
+    private volatile FlatExpression flat; // null until first needed
+
+    /**
+     * @param root root of the expression; subtrees are shared when they are the same object,
+     *             e.g. when they were built by one ExpressionFactory
+     */
+    public ExpressionDag(Expression root) {
+        this.root = root;
+
+        // size of the expanded subtree of every distinct node, filled in postfix order
+        Map<Expression, Long> sizes = new IdentityHashMap<>();
+        Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Expression node = pending.peek();
+            if (sizes.containsKey(node)) {
+                pending.pop();
+                continue;
+            }
+            Expression left = ExpressionWalker.left(node);
+            Expression right = ExpressionWalker.right(node);
+            if (left == null) {
+                sizes.put(node, 1L);
+                pending.pop();
+            }
+            else if (sizes.containsKey(left) && sizes.containsKey(right)) {
+                sizes.put(node, saturatedSum(saturatedSum(1, sizes.get(left)), sizes.get(right)));
+                pending.pop();
+            }
+            else {
+                pending.push(right);
+                pending.push(left);
+            }
+        }
+        this.nodeCount = sizes.size();
+        this.treeSize = sizes.get(root);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 1 <= nodeCount && nodeCount <= treeSize;
+    }
+
+    /**
+     * Eliminate common subexpressions: merge every repeated subtree of expression
+     * into a single shared node.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return the DAG of the distinct subtrees of expression
+     */
+    public static ExpressionDag of(Expression expression) {
+        return new ExpressionDag(new ExpressionFactory().intern(expression));
+    }
+
+    private static long saturatedSum(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * @return root of the expression
+     */
+    public Expression root() {
+        return root;
+    }
+
+    /**
+     * @return number of distinct node objects in the DAG
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return number of nodes of the fully expanded tree, saturated at Long.MAX_VALUE
+     */
+    public long treeSize() {
+        return treeSize;
+    }
+
+    /**
+     * Evaluate exactly, as Expression.evaluate does, computing every distinct node once.
+     * @return the value of the expression
+     */
+    public Number evaluate() {
+        return flat().evaluate();
+    }
+
+    /**
+     * @return the value of the expression, computing every distinct node once
+     * @throws ArithmeticException if the value is not an integer in the range of int
+     */
+    public int value() {
+        return evaluate().value();
+    }
+
+    /**
+     * Evaluate in double arithmetic, computing every distinct node once.
+     * @param layout layout with a slot for every variable of the expression
+     * @param environment value of every variable, indexed by slot
+     * @return the value of the expression
+     * @throws IllegalArgumentException if a variable has no slot in layout
+     */
+    public double evaluate(VariableLayout layout, double[] environment) {
+        return flat().evaluate(layout, environment);
+    }
+
+    /**
+     * @return the expression with every node that has several parents bound once to
+     *         a temporary, as defined by FlatExpression.toLetString
+     */
+    public String toLetString() {
+        return flat().toLetString();
+    }
+
+    private FlatExpression flat() {
+        FlatExpression result = flat;
+        if (result == null) {
+            result = FlatExpression.of(root);
+            flat = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return a summary of the DAG size; use root().toString() for the expanded expression
+     */
+    @Override
+    public String toString() {
+        return "ExpressionDag[nodes=" + nodeCount + ", treeSize=" + treeSize + "]";
+    }
+}
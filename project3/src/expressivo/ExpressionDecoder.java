@@ -0,0 +1,208 @@
+package expressivo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads back the expressions written by ExpressionEncoder, one record at a time,
+ * in the format described there.
+ *
+ * Each record is rebuilt on an explicit operand stack, so its depth is not limited by
+ * the thread stack, and its nodes are hash-consed: back-references, and equal subtrees
+ * within the record, come back as the same node.
+ */
+public class ExpressionDecoder implements Closeable {
+    /*
+        Abstract function:
+            Represent a stream positioned before the next record, where variables.get(i)
+            is the Var at index i of the variable table
+        Rep invariant:
+            between records, the operand stack is empty
+        Rep exposure:
+            in is private; variables is private and never returned, and holds immutable nodes
+     */
+    private final InputStream in;
+    private final List<Var> variables = new ArrayList<>();
+
+    /**
+     * Make a decoder and read the stream header.
+     * @param in stream written by ExpressionEncoder; it is buffered by the decoder
+     * @throws IOException if reading fails or in doesn't start with a valid header
+     */
+    public ExpressionDecoder(InputStream in) throws IOException {
+        // streams that are already cheap to read byte by byte are not copied into a buffer
+        this.in = in instanceof BufferedInputStream || in instanceof ByteArrayInputStream
+                || in instanceof MappedExpressionReader.MappedInputStream
+                ? in : new BufferedInputStream(in, 1 << 16);
+        byte[] header = new byte[ExpressionEncoder.MAGIC.length];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = (byte) readByte();
+        }
+        if (!Arrays.equals(header, ExpressionEncoder.MAGIC)) {
+            throw new StreamCorruptedException("not an expression stream");
+        }
+        int version = readByte();
+        if (version != ExpressionEncoder.VERSION) {
+            throw new StreamCorruptedException("unsupported version " + version);
+        }
+    }
+
+    /**
+     * Decode a single expression.
+     * @param bytes a stream written by ExpressionEncoder, whose first record is returned
+     * @return the first expression of the stream
+     * @throws IllegalArgumentException if bytes is not a valid stream with at least one record
+     */
+    public static Expression decode(byte[] bytes) {
+        try (ExpressionDecoder decoder = new ExpressionDecoder(new ByteArrayInputStream(bytes))) {
+            Expression expression = decoder.read();
+            if (expression == null) {
+                throw new IllegalArgumentException("no expression in stream");
+            }
+            return expression;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid expression stream", e);
+        }
+    }
+
+    /**
+     * Read the next record.
+     * @return the next expression, or null at the end of the stream
+     * @throws IOException if reading fails or the record is malformed
+     */
+    public Expression read() throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            return null;
+        }
+        ExpressionFactory factory = new ExpressionFactory();
+        Expression[] stack = new Expression[16];
+        int size = 0;
+        // Add and Multiply nodes of this record, in order of reading
+        List<Expression> shared = new ArrayList<>();
+
+        for (; tag != ExpressionEncoder.END; tag = readByte()) {
+            Expression node;
+            switch (tag) {
+            case ExpressionEncoder.LONG: {
+                long zigzag = readVarint();
+                node = factory.number(Number.of((zigzag >>> 1) ^ -(zigzag & 1)));
+                break;
+            }
+            case ExpressionEncoder.DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | readByte();
+                }
+                double value = Double.longBitsToDouble(bits);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    throw new StreamCorruptedException("invalid number " + value);
+                }
+                node = factory.number(Number.of(value));
+                break;
+            }
+            case ExpressionEncoder.BIG:
+                node = factory.number(parseNumber(new String(readBytes(), StandardCharsets.US_ASCII)));
+                break;
+            case ExpressionEncoder.VARIABLE:
+                node = variables.get(checkIndex(readVarint(), variables.size()));
+                break;
+            case ExpressionEncoder.NEW_VARIABLE:
+                node = factory.variable(new String(readBytes(), StandardCharsets.UTF_8));
+                variables.add((Var) node);
+                break;
+            case ExpressionEncoder.ADD:
+            case ExpressionEncoder.MULTIPLY: {
+                if (size < 2) {
+                    throw new StreamCorruptedException("operator without two operands");
+                }
+                Expression right = stack[--size];
+                Expression left = stack[--size];
+                node = tag == ExpressionEncoder.ADD ? factory.add(left, right) : factory.multiply(left, right);
+                shared.add(node);
+                break;
+            }
+            case ExpressionEncoder.BACK_REFERENCE:
+                node = shared.get(shared.size() - 1 - checkIndex(readVarint(), shared.size()));
+                break;
+            default:
+                throw new StreamCorruptedException("unknown tag " + tag);
+            }
+
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+            }
+            stack[size++] = node;
+        }
+
+        if (size != 1) {
+            throw new StreamCorruptedException("record leaves " + size + " operands");
+        }
+        return stack[0];
+    }
+
+    private static Number parseNumber(String text) throws StreamCorruptedException {
+        try {
+            return Number.of(new java.math.BigDecimal(text));
+        } catch (NumberFormatException e) {
+            throw new StreamCorruptedException("invalid number " + text);
+        }
+    }
+
+    private static int checkIndex(long index, int size) throws StreamCorruptedException {
+        if (index < 0 || index >= size) {
+            throw new StreamCorruptedException("index " + index + " out of " + size);
+        }
+        return (int) index;
+    }
+
+    private byte[] readBytes() throws IOException {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new StreamCorruptedException("length " + length + " too large");
+        }
+        byte[] bytes = new byte[(int) length];
+        for (int read = 0; read < bytes.length; ) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                throw new EOFException("record truncated");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("varint too long");
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("record truncated");
+        }
+        return b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
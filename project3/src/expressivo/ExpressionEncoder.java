@@ -0,0 +1,202 @@
+package expressivo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes expressions to a stream in a compact binary format, read back by ExpressionDecoder
+ * and MappedExpressionReader without parsing any text.
+ *
+ * The stream starts with the 4 bytes "EXPR" and a version byte, followed by one record per
+ * expression. A record is the postfix (left, right, operator) sequence of the nodes of the
+ * expression, each one a tag byte and its operands, ended by the END tag:
+ *   END                      end of the record
+ *   LONG v                   Number holding a long, as a zigzag varint
+ *   DOUBLE bits              Number holding a double, as 8 bytes big-endian
+ *   BIG n text               any other Number, as n ASCII bytes of its toString()
+ *   VARIABLE i               Var at index i of the variable table, as a varint
+ *   NEW_VARIABLE n name      Var with a new name, as n UTF-8 bytes; appended to the variable table
+ *   ADD, MULTIPLY            Add or Multiply of the two nodes before it
+ *   BACK_REFERENCE d         repeat of an Add or Multiply node already written in the same record,
+ *                            d being the number of Add/Multiply nodes written since it, as a varint
+ * The variable table spans the whole stream, so each name is written once; back-references
+ * are scoped to their record, so memory stays bounded by the largest record, not the stream.
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, high bit set on
+ * all bytes but the last.
+ */
+public class ExpressionEncoder implements Closeable, Flushable {
+    /*
+        Abstract function:
+            Represent a stream positioned after the records already written, where
+            variables.get(v) is the index of v in the variable table
+        Rep invariant:
+            the values of variables are 0..variables.size()-1,
+            shared is empty between records
+        Rep exposure:
+            out is private; the maps are private and never returned
+     */
+    static final byte[] MAGIC = {'E', 'X', 'P', 'R'};
+    static final int VERSION = 1;
+
+    static final int END = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int BIG = 3;
+    static final int VARIABLE = 4;
+    static final int NEW_VARIABLE = 5;
+    static final int ADD = 6;
+    static final int MULTIPLY = 7;
+    static final int BACK_REFERENCE = 8;
+
+    private final OutputStream out;
+    private final Map<String, Integer> variables = new HashMap<>();
+    /** Add and Multiply nodes of the current record -> their number in order of writing */
+    private final Map<Expression, Integer> shared = new HashMap<>();
+
+    /**
+     * Make an encoder and write the stream header.
+     * @param out where to write; it is buffered by the encoder
+     * @throws IOException if writing the header fails
+     */
+    public ExpressionEncoder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    /**
+     * Encode a single expression.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return a complete stream holding expression as its only record
+     */
+    public static byte[] encode(Expression expression) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ExpressionEncoder encoder = new ExpressionEncoder(bytes)) {
+            encoder.write(expression);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a ByteArrayOutputStream doesn't fail
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Append a record.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public void write(Expression expression) throws IOException {
+        try {
+            ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+                @Override
+                public boolean enter(Expression node) {
+                    Integer number = shared.get(node);
+                    if (number == null) {
+                        return true;
+                    }
+                    writeByte(BACK_REFERENCE);
+                    writeVarint(shared.size() - 1 - number);
+                    return false;
+                }
+
+                @Override
+                public void exit(Expression node) {
+                    writeNode(node);
+                }
+            });
+            writeByte(END);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            shared.clear();
+        }
+    }
+
+    private void writeNode(Expression node) {
+        if (node instanceof Add || node instanceof Multiply) {
+            writeByte(node instanceof Add ? ADD : MULTIPLY);
+            shared.put(node, shared.size());
+        }
+        else if (node instanceof Number) {
+            Number number = (Number) node;
+            if (number.isLong()) {
+                writeByte(LONG);
+                long value = number.longValue();
+                writeVarint((value << 1) ^ (value >> 63));
+            }
+            else if (number.kind() == Number.DOUBLE) {
+                writeByte(DOUBLE);
+                long bits = Double.doubleToLongBits(number.doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    writeByte((int) (bits >>> shift));
+                }
+            }
+            else {
+                writeByte(BIG);
+                writeBytes(number.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        else if (node instanceof Var) {
+            String name = node.toString();
+            Integer index = variables.get(name);
+            if (index != null) {
+                writeByte(VARIABLE);
+                writeVarint(index);
+            } else {
+                writeByte(NEW_VARIABLE);
+                writeBytes(name.getBytes(StandardCharsets.UTF_8));
+                variables.put(name, variables.size());
+            }
+        }
+        else {
+            throw new IllegalArgumentException("cannot encode " + node.getClass().getSimpleName());
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int b) {
+        try {
+            out.write(b);
+        } catch (IOException e) {
+            // the walk callbacks can't throw checked exceptions; write unwraps this
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flush and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,143 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A hash-consing factory for Expression nodes.
+ *
+ * Every node built (or interned) through the same factory is canonical: two structurally
+ * equal subtrees are represented by one shared object, so comparing canonical nodes
+ * is a reference check and repeated subtrees are stored only once.
+ */
+public class ExpressionFactory {
+    /*
+        Abstract function:
+            Represent the set of canonical nodes created so far by this factory
+        Rep invariant:
+            every key of nodes is mapped to itself,
+            the operands of every canonical Add/Multiply are canonical too
+        Rep exposure:
+            nodes is private and never returned; the nodes themselves are immutable
+        Thread safety:
+            nodes is a ConcurrentHashMap and nodes are inserted with putIfAbsent,
+            so concurrent callers always agree on the same canonical node
+     */
+    private final ConcurrentMap<Expression, Expression> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * @param value value of the number
+     * @return the canonical Number node with this value
+     */
+    public Number number(int value) {
+        return (Number) canonical(new Number(value));
+    }
+
+    /**
+     * @param value any number
+     * @return the canonical Number node equal to value
+     */
+    public Number number(Number value) {
+        return (Number) canonical(value);
+    }
+
+    /**
+     * @param name name of the variable, a case-sensitive nonempty string of letters
+     * @return the canonical Var node with this name
+     */
+    public Var variable(String name) {
+        return (Var) canonical(new Var(name, 0));
+    }
+
+    /**
+     * @return the canonical Add node of the two operands, which don't need to be canonical
+     */
+    public Add add(Expression left, Expression right) {
+        return (Add) canonical(new Add(intern(left), intern(right)));
+    }
+
+    /**
+     * @return the canonical Multiply node of the two operands, which don't need to be canonical
+     */
+    public Multiply multiply(Expression left, Expression right) {
+        return (Multiply) canonical(new Multiply(intern(left), intern(right)));
+    }
+
+    /**
+     * Intern an expression built elsewhere.
+     * An expression equal to a known canonical node is resolved with one lookup,
+     * other ones are rebuilt bottom-up, every distinct node by identity once, so a DAG
+     * with shared subexpressions is not walked as the tree it stands for.
+     *
+     * @param expression expression to intern
+     * @return the canonical expression structurally equal to expression
+     */
+    public Expression intern(Expression expression) {
+        Expression known = nodes.get(expression);
+        if (known != null) {
+            return known;
+        }
+
+        Deque<Expression> interned = new ArrayDeque<>();
+        // the canonical node of every node of expression rebuilt so far, by identity: comparing
+        // a shared node with its canonical copy would walk it as a tree
+        Map<Expression, Expression> rebuilt = new IdentityHashMap<>();
+        ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                // a known subtree is replaced as a whole, without walking its operands
+                Expression known = rebuilt.get(node);
+                if (known == null) {
+                    known = nodes.get(node);
+                    if (known != null) {
+                        rebuilt.put(node, known);
+                    }
+                }
+                if (known != null) {
+                    interned.push(known);
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void exit(Expression node) {
+                Expression canonical;
+                if (node instanceof Add) {
+                    Expression right = interned.pop();
+                    canonical = canonical(new Add(interned.pop(), right));
+                }
+                else if (node instanceof Multiply) {
+                    Expression right = interned.pop();
+                    canonical = canonical(new Multiply(interned.pop(), right));
+                }
+                else {
+                    canonical = canonical(node);
+                }
+                rebuilt.put(node, canonical);
+                interned.push(canonical);
+            }
+        });
+        return interned.pop();
+    }
+
+    /**
+     * @return number of distinct nodes created by this factory
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @param node a node whose operands (if any) are already canonical
+     * @return the canonical node equal to node
+     */
+    private Expression canonical(Expression node) {
+        Expression known = nodes.putIfAbsent(node, node);
+        return known == null ? node : known;
+    }
+}
@@ -0,0 +1,213 @@
+package expressivo;
+
+import java.util.Arrays;
+
+/**
+ * Explicit-stack traversals of Expression trees.
+ *
+ * Every operation that needs to visit a whole expression goes through this class instead
+ * of recursing on the Java call stack, so the depth of an expression is limited by the heap,
+ * not by the thread stack size.
+ */
+public class ExpressionWalker {
+
+    /**
+     * Callbacks of a depth-first walk (this is a listener in the Visitor pattern).
+     * For an Add or Multiply node the calls are: enter, the walk of the left operand, between,
+     * the walk of the right operand, exit. For a Number or Var node: enter, exit.
+     */
+    public interface Listener {
+        /**
+         * Called when the walk reaches node.
+         * @return false to skip node: its operands are not walked, and neither between nor exit
+         *         is called for it
+         */
+        default boolean enter(Expression node) {
+            return true;
+        }
+
+        /**
+         * Called between the walks of the left and right operands of an Add or Multiply node.
+         */
+        default void between(Expression node) {
+        }
+
+        /**
+         * Called after the operands of node, if any, have been walked.
+         */
+        void exit(Expression node);
+    }
+
+    private ExpressionWalker() {
+    }
+
+    /**
+     * Walk an expression depth-first, left operand first.
+     * @param root expression made of Add, Multiply, Number and Var nodes
+     * @param listener callbacks to call during the walk
+     */
+    public static void walk(Expression root, Listener listener) {
+        Expression[] nodes = new Expression[16];
+        // 0: not entered yet, 1: left operand walked, 2: both operands walked
+        byte[] states = new byte[16];
+        int top = 0;
+        nodes[0] = root;
+
+        while (top >= 0) {
+            Expression node = nodes[top];
+            Expression operand = null;
+            switch (states[top]) {
+            case 0:
+                if (!listener.enter(node)) {
+                    top--;
+                    continue;
+                }
+                operand = left(node);
+                if (operand == null) {
+                    listener.exit(node);
+                    top--;
+                    continue;
+                }
+                states[top] = 1;
+                break;
+            case 1:
+                listener.between(node);
+                operand = right(node);
+                states[top] = 2;
+                break;
+            default:
+                listener.exit(node);
+                top--;
+                continue;
+            }
+
+            if (++top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+            }
+            nodes[top] = operand;
+            states[top] = 0;
+        }
+    }
+
+    /**
+     * @return the left operand of an Add or Multiply node, null for any other node
+     */
+    static Expression left(Expression node) {
+        if (node instanceof Add) return ((Add) node).getLeft();
+        if (node instanceof Multiply) return ((Multiply) node).getLeft();
+        return null;
+    }
+
+    /**
+     * @return the right operand of an Add or Multiply node, null for any other node
+     */
+    static Expression right(Expression node) {
+        if (node instanceof Add) return ((Add) node).getRight();
+        if (node instanceof Multiply) return ((Multiply) node).getRight();
+        return null;
+    }
+
+    /**
+     * @return the cached tree size of an Add or Multiply node, 1 for any other node
+     */
+    static int size(Expression node) {
+        if (node instanceof Add) return ((Add) node).size();
+        if (node instanceof Multiply) return ((Multiply) node).size();
+        return 1;
+    }
+
+    /**
+     * @return the tree size of a node with operands left and right, saturated at Integer.MAX_VALUE
+     */
+    static int size(Expression left, Expression right) {
+        long size = 1L + size(left) + size(right);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the string representation of expression, as defined by Add.toString and Multiply.toString
+     */
+    static String toString(Expression expression) {
+        StringBuilder result = new StringBuilder();
+        walk(expression, new Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                if (node instanceof Add) result.append('(');
+                return true;
+            }
+
+            @Override
+            public void between(Expression node) {
+                result.append(node instanceof Add ? " + " : "*");
+            }
+
+            @Override
+            public void exit(Expression node) {
+                if (node instanceof Add) result.append(')');
+                else if (left(node) == null) result.append(node);
+            }
+        });
+        return result.toString();
+    }
+
+    /**
+     * @return the exact value of expression, as defined by Expression.evaluate
+     */
+    static Number evaluate(Expression expression) {
+        NumberStack values = new NumberStack(16);
+        walk(expression, node -> {
+            if (node instanceof Add) {
+                values.add();
+            }
+            else if (node instanceof Multiply) {
+                values.multiply();
+            }
+            else if (node instanceof Number) {
+                values.push((Number) node);
+            }
+            else {
+                values.push(node.value());
+            }
+        });
+        return values.pop();
+    }
+
+    /**
+     * @return true iff the two expressions are structurally equal, as defined by Expression.equals
+     */
+    static boolean equal(Expression first, Expression second) {
+        Expression[] pairs = new Expression[32];
+        int top = 0;
+        pairs[0] = first;
+        pairs[1] = second;
+
+        while (top >= 0) {
+            Expression a = pairs[2 * top];
+            Expression b = pairs[2 * top + 1];
+            top--;
+            if (a == b) {
+                continue;
+            }
+            Expression leftOfA = left(a);
+            if (leftOfA == null) {
+                if (!a.equals(b)) return false;
+                continue;
+            }
+            if (a.getClass() != b.getClass() || a.hashCode() != b.hashCode()) {
+                return false;
+            }
+
+            if (2 * (top + 3) > pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            top++;
+            pairs[2 * top] = right(a);
+            pairs[2 * top + 1] = right(b);
+            top++;
+            pairs[2 * top] = leftOfA;
+            pairs[2 * top + 1] = left(b);
+        }
+        return true;
+    }
+}
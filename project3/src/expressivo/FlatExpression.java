@@ -0,0 +1,774 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Expression stored as parallel primitive arrays instead of one object per node,
+ * for expressions too large to hold as Add/Multiply trees.
+ *
+ * Every Add or Multiply node is an index into opcodes, lefts and rights; its operands are
+ * references: a nonnegative reference is the index of another Add or Multiply node, a
+ * negative reference r is the Number or Var leaf ~r of a small table of distinct leaves.
+ * Operands always come before their parent, so the arrays are in postfix order and
+ * evaluation, hashing and differentiation are single sequential passes over them.
+ * A node referenced by several parents is stored once, so the arrays hold a DAG.
+ *
+ * An Add or Multiply node takes 9 bytes here, against 24 for an Add or Multiply object
+ * and its header, and leaves take no space per occurrence.
+ *
+ * toString, hashCode, value and evaluate are the same as for the equal object tree.
+ * A FlatExpression only equals other FlatExpressions, as an Add never equals a Multiply;
+ * toTree and of convert between the two representations.
+ */
+public class FlatExpression implements Expression {
+    /*
+        Abstract function:
+            Represent the expression at reference root, where node i is
+            Add or Multiply (by opcodes[i]) of the expressions at references lefts[i] and rights[i],
+            and reference r < 0 is leaves[~r]
+        Rep invariant:
+            opcodes, lefts and rights have the same length,
+            lefts[i] < i and rights[i] < i for every node i,
+            root < opcodes.length, and ~root < leaves.length if root < 0,
+            leaves are Number and Var nodes,
+            every node and leaf is reachable from root, so root is the last node if it is one
+        Rep exposure:
+            the arrays are private, never returned, and never modified after construction;
+            they may be shared with other FlatExpressions, which don't modify them either
+        Thread safety:
+            hashCode is cached with a benign race, as in String: every thread computes the same value
+     */
+    private static final byte ADD = 0;
+    private static final byte MULTIPLY = 1;
+
+    private final byte[] opcodes;
+    private final int[] lefts;
+    private final int[] rights;
+    private final Expression[] leaves;
+    private final int root;
+    private int hashCode; // 0 until computed
+
+    private FlatExpression(byte[] opcodes, int[] lefts, int[] rights, Expression[] leaves, int root) {
+        this.opcodes = opcodes;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.leaves = leaves;
+        this.root = root;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert opcodes.length == lefts.length && lefts.length == rights.length;
+        assert root < opcodes.length && (root >= 0 || ~root < leaves.length);
+    }
+
+    /**
+     * Builds a FlatExpression bottom-up: every method adds a node and returns its reference,
+     * to pass as an operand of later nodes or to build.
+     */
+    public static final class Builder {
+        private byte[] opcodes = new byte[16];
+        private int[] lefts = new int[16];
+        private int[] rights = new int[16];
+        private int size = 0;
+        private final List<Expression> leaves = new ArrayList<>();
+        private final Map<Expression, Integer> leafReferences = new HashMap<>();
+
+        /**
+         * Make an empty builder.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Make a builder holding the nodes of expression, whose references stay valid.
+         */
+        private Builder(FlatExpression expression) {
+            size = Math.max(expression.root + 1, 0);
+            opcodes = Arrays.copyOf(expression.opcodes, Math.max(size, 16));
+            lefts = Arrays.copyOf(expression.lefts, Math.max(size, 16));
+            rights = Arrays.copyOf(expression.rights, Math.max(size, 16));
+            for (Expression leaf : expression.leaves) {
+                leaf(leaf);
+            }
+        }
+
+        /**
+         * @return reference of the number value
+         */
+        public int number(Number value) {
+            return leaf(value);
+        }
+
+        /**
+         * @return reference of the variable name
+         */
+        public int variable(String name) {
+            return leaf(new Var(name, 0));
+        }
+
+        /**
+         * @return reference of the sum of the nodes at references left and right
+         */
+        public int add(int left, int right) {
+            return node(ADD, left, right);
+        }
+
+        /**
+         * @return reference of the product of the nodes at references left and right
+         */
+        public int multiply(int left, int right) {
+            return node(MULTIPLY, left, right);
+        }
+
+        /**
+         * @param root reference returned by this builder
+         * @return the expression at reference root
+         */
+        public FlatExpression build(int root) {
+            checkReference(root);
+            // keep only the nodes and leaves root refers to: a derivative is built on top of
+            // every node of its source, and must not evaluate or print the ones it doesn't use
+            boolean[] reachableNodes = new boolean[size];
+            boolean[] reachableLeaves = new boolean[leaves.size()];
+            reach(root, reachableNodes, reachableLeaves);
+            for (int i = root; i >= 0; i--) {
+                if (reachableNodes[i]) {
+                    reach(lefts[i], reachableNodes, reachableLeaves);
+                    reach(rights[i], reachableNodes, reachableLeaves);
+                }
+            }
+
+            int[] nodeIndices = new int[size];
+            int nodes = 0;
+            for (int i = 0; i < size; i++) {
+                nodeIndices[i] = reachableNodes[i] ? nodes++ : -1;
+            }
+            int[] leafIndices = new int[leaves.size()];
+            List<Expression> keptLeaves = new ArrayList<>();
+            for (int i = 0; i < leafIndices.length; i++) {
+                if (reachableLeaves[i]) {
+                    leafIndices[i] = keptLeaves.size();
+                    keptLeaves.add(leaves.get(i));
+                }
+            }
+
+            byte[] keptOpcodes = new byte[nodes];
+            int[] keptLefts = new int[nodes];
+            int[] keptRights = new int[nodes];
+            for (int i = 0; i < size; i++) {
+                int index = nodeIndices[i];
+                if (index >= 0) {
+                    keptOpcodes[index] = opcodes[i];
+                    keptLefts[index] = renumber(lefts[i], nodeIndices, leafIndices);
+                    keptRights[index] = renumber(rights[i], nodeIndices, leafIndices);
+                }
+            }
+            return new FlatExpression(keptOpcodes, keptLefts, keptRights, keptLeaves.toArray(new Expression[0]),
+                    renumber(root, nodeIndices, leafIndices));
+        }
+
+        private static void reach(int reference, boolean[] reachableNodes, boolean[] reachableLeaves) {
+            if (reference >= 0) {
+                reachableNodes[reference] = true;
+            } else {
+                reachableLeaves[~reference] = true;
+            }
+        }
+
+        private static int renumber(int reference, int[] nodeIndices, int[] leafIndices) {
+            return reference >= 0 ? nodeIndices[reference] : ~leafIndices[~reference];
+        }
+
+        private int leaf(Expression leaf) {
+            Integer known = leafReferences.get(leaf);
+            if (known != null) {
+                return known;
+            }
+            int reference = ~leaves.size();
+            leaves.add(leaf);
+            leafReferences.put(leaf, reference);
+            return reference;
+        }
+
+        private int node(byte opcode, int left, int right) {
+            checkReference(left);
+            checkReference(right);
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                lefts = Arrays.copyOf(lefts, size * 2);
+                rights = Arrays.copyOf(rights, size * 2);
+            }
+            opcodes[size] = opcode;
+            lefts[size] = left;
+            rights[size] = right;
+            return size++;
+        }
+
+        private void checkReference(int reference) {
+            if (reference >= size || ~reference >= leaves.size()) {
+                throw new IllegalArgumentException("unknown reference " + reference);
+            }
+        }
+    }
+
+    /**
+     * Convert an object tree to the flat representation.
+     * @param expression expression made of Add, Multiply, Number and Var nodes; a node object
+     *                   referenced by several parents is stored once
+     * @return the flat expression equal to expression
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static FlatExpression of(Expression expression) {
+        if (expression instanceof FlatExpression) {
+            return (FlatExpression) expression;
+        }
+        Flattener flattener = new Flattener();
+        ExpressionWalker.walk(expression, flattener);
+        return flattener.builder.build(flattener.stack[0]);
+    }
+
+    /**
+     * Walk listener adding the nodes of a tree to a Builder, on a stack of operand references.
+     */
+    private static final class Flattener implements ExpressionWalker.Listener {
+        private final Builder builder = new Builder();
+        private final Map<Expression, Integer> references = new IdentityHashMap<>();
+        private int[] stack = new int[16];
+        private int size = 0;
+
+        @Override
+        public boolean enter(Expression node) {
+            Integer known = references.get(node);
+            if (known == null) {
+                return true;
+            }
+            push(known);
+            return false;
+        }
+
+        @Override
+        public void exit(Expression node) {
+            int reference;
+            if (node instanceof Number || node instanceof Var) {
+                reference = builder.leaf(node);
+            }
+            else if (node instanceof Add || node instanceof Multiply) {
+                int right = stack[--size];
+                int left = stack[--size];
+                reference = node instanceof Add ? builder.add(left, right) : builder.multiply(left, right);
+                references.put(node, reference);
+            }
+            else {
+                throw new IllegalArgumentException("cannot flatten " + node.getClass().getSimpleName());
+            }
+            push(reference);
+        }
+
+        private void push(int reference) {
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+            }
+            stack[size++] = reference;
+        }
+    }
+
+    /**
+     * Convert to the object representation.
+     * @return the expression tree equal to this, whose nodes are shared as in this DAG
+     */
+    public Expression toTree() {
+        ExpressionFactory factory = new ExpressionFactory();
+        Expression[] trees = new Expression[root + 1];
+        for (int i = 0; i <= root; i++) {
+            Expression left = tree(lefts[i], trees, factory);
+            Expression right = tree(rights[i], trees, factory);
+            trees[i] = opcodes[i] == ADD ? factory.add(left, right) : factory.multiply(left, right);
+        }
+        return tree(root, trees, factory);
+    }
+
+    private Expression tree(int reference, Expression[] trees, ExpressionFactory factory) {
+        return reference >= 0 ? trees[reference] : factory.intern(leaves[~reference]);
+    }
+
+    /**
+     * @return number of Add and Multiply nodes stored, each one once however many parents it has
+     */
+    public int nodeCount() {
+        return root + 1;
+    }
+
+    /**
+     * @return reference of the root: a node index, or ~i for leaf i
+     */
+    int root() {
+        return root;
+    }
+
+    /**
+     * @return true if node is an Add, false if it is a Multiply
+     */
+    boolean isAdd(int node) {
+        return opcodes[node] == ADD;
+    }
+
+    /**
+     * @return reference of the left operand of node
+     */
+    int left(int node) {
+        return lefts[node];
+    }
+
+    /**
+     * @return reference of the right operand of node
+     */
+    int right(int node) {
+        return rights[node];
+    }
+
+    /**
+     * @return number of distinct leaves
+     */
+    int leafCount() {
+        return leaves.length;
+    }
+
+    /**
+     * @return the Number or Var leaf i, at reference ~i
+     */
+    Expression leaf(int i) {
+        return leaves[i];
+    }
+
+    /**
+     * Differentiate with respect to a variable, with the same rules as Commands.differentiate.
+     * The derivative of every node is computed once, in one pass over the arrays, and refers to
+     * the nodes of this expression instead of copying them; the nodes it does not refer to,
+     * like the root of this expression, are left out.
+     * @param variable the variable to differentiate by
+     * @return the derivative of this expression, equal to the flattened tree of Commands.differentiate
+     */
+    public FlatExpression differentiate(String variable) {
+        Builder builder = new Builder(this);
+        int zero = builder.number(Number.of(0));
+        int one = builder.number(Number.of(1));
+        int[] derivatives = new int[root + 1];
+        for (int i = 0; i <= root; i++) {
+            int left = lefts[i];
+            int right = rights[i];
+            int derivativeOfLeft = derivative(left, derivatives, variable, zero, one);
+            int derivativeOfRight = derivative(right, derivatives, variable, zero, one);
+            derivatives[i] = opcodes[i] == ADD
+                    ? builder.add(derivativeOfLeft, derivativeOfRight)
+                    : builder.add(builder.multiply(left, derivativeOfRight), builder.multiply(right, derivativeOfLeft));
+        }
+        return builder.build(derivative(root, derivatives, variable, zero, one));
+    }
+
+    private int derivative(int reference, int[] derivatives, String variable, int zero, int one) {
+        if (reference >= 0) {
+            return derivatives[reference];
+        }
+        Expression leaf = leaves[~reference];
+        return leaf instanceof Var && leaf.toString().equals(variable) ? one : zero;
+    }
+
+    @Override
+    public int value() {
+        return evaluate().value();
+    }
+
+    /**
+     * Evaluate exactly, as Expression.evaluate does, computing every stored node once
+     * in array order.
+     */
+    @Override
+    public Number evaluate() {
+        if (root < 0) {
+            return leaves[~root].evaluate();
+        }
+        Values values = new Values(root + 1);
+        for (int i = 0; i <= root; i++) {
+            values.combine(i, opcodes[i], lefts[i], rights[i]);
+        }
+        return values.get(root);
+    }
+
+    /**
+     * Evaluate in double arithmetic, computing every stored node once in array order,
+     * so that a node shared by many parents costs the same as a node with one parent.
+     * @param layout layout with a slot for every variable of this expression
+     * @param environment value of every variable, indexed by slot
+     * @return the value of this expression
+     * @throws IllegalArgumentException if a variable has no slot in layout
+     */
+    public double evaluate(VariableLayout layout, double[] environment) {
+        double[] leafValues = leafValues(layout, environment);
+        if (root < 0) {
+            return leafValues[~root];
+        }
+        double[] values = new double[root + 1];
+        for (int i = 0; i <= root; i++) {
+            double left = lefts[i] >= 0 ? values[lefts[i]] : leafValues[~lefts[i]];
+            double right = rights[i] >= 0 ? values[rights[i]] : leafValues[~rights[i]];
+            values[i] = opcodes[i] == ADD ? left + right : left * right;
+        }
+        return values[root];
+    }
+
+    /**
+     * Evaluate the gradient in double arithmetic by reverse-mode accumulation: a forward pass
+     * computes the value of every stored node, then a backward pass propagates the adjoint
+     * of every node, the derivative of the root with respect to it, down to the variables.
+     * @param layout layout with a slot for every variable of this expression
+     * @param point value of every variable, indexed by slot
+     * @return the partial derivative of this expression at point with respect to every variable
+     *         of layout, indexed by slot; 0 for the variables that are not in this expression
+     * @throws IllegalArgumentException if a variable has no slot in layout
+     */
+    public double[] gradient(VariableLayout layout, double[] point) {
+        double[] leafValues = leafValues(layout, point);
+        double[] gradient = new double[layout.size()];
+        if (root < 0) {
+            addToLeaf(root, 1, layout, gradient);
+            return gradient;
+        }
+        double[] values = new double[root + 1];
+        for (int i = 0; i <= root; i++) {
+            double left = lefts[i] >= 0 ? values[lefts[i]] : leafValues[~lefts[i]];
+            double right = rights[i] >= 0 ? values[rights[i]] : leafValues[~rights[i]];
+            values[i] = opcodes[i] == ADD ? left + right : left * right;
+        }
+
+        double[] adjoints = new double[root + 1];
+        double[] leafAdjoints = new double[leaves.length];
+        adjoints[root] = 1;
+        for (int i = root; i >= 0; i--) {
+            double adjoint = adjoints[i];
+            int left = lefts[i];
+            int right = rights[i];
+            double toLeft = adjoint;
+            double toRight = adjoint;
+            if (opcodes[i] == MULTIPLY) {
+                toLeft = adjoint * (right >= 0 ? values[right] : leafValues[~right]);
+                toRight = adjoint * (left >= 0 ? values[left] : leafValues[~left]);
+            }
+            if (left >= 0) adjoints[left] += toLeft; else leafAdjoints[~left] += toLeft;
+            if (right >= 0) adjoints[right] += toRight; else leafAdjoints[~right] += toRight;
+        }
+        for (int i = 0; i < leaves.length; i++) {
+            addToLeaf(~i, leafAdjoints[i], layout, gradient);
+        }
+        return gradient;
+    }
+
+    private void addToLeaf(int reference, double adjoint, VariableLayout layout, double[] gradient) {
+        Expression leaf = leaves[~reference];
+        if (leaf instanceof Var) {
+            gradient[layout.slot(leaf.toString())] += adjoint;
+        }
+    }
+
+    /**
+     * @return the value of every leaf at point, indexed like leaves
+     * @throws IllegalArgumentException if a variable has no slot in layout
+     */
+    private double[] leafValues(VariableLayout layout, double[] point) {
+        double[] leafValues = new double[leaves.length];
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i] instanceof Var) {
+                int slot = layout.slot(leaves[i].toString());
+                if (slot < 0) {
+                    throw new IllegalArgumentException("no slot for variable " + leaves[i] + " in " + layout);
+                }
+                leafValues[i] = point[slot];
+            } else {
+                leafValues[i] = ((Number) leaves[i]).doubleValue();
+            }
+        }
+        return leafValues;
+    }
+
+    /**
+     * Values of the nodes of one evaluation, held in primitive arrays while they fit
+     * a long or a double, as in NumberStack.
+     */
+    private final class Values {
+        private final byte[] kinds;
+        private final long[] longs;
+        private final double[] doubles;
+        private Number[] bigs; // allocated on the first overflow
+
+        Values(int size) {
+            kinds = new byte[size];
+            longs = new long[size];
+            doubles = new double[size];
+        }
+
+        void combine(int i, byte opcode, int left, int right) {
+            byte leftKind = kind(left);
+            byte rightKind = kind(right);
+            if (leftKind == Number.LONG && rightKind == Number.LONG) {
+                long a = asLong(left);
+                long b = asLong(right);
+                long result = opcode == ADD ? a + b : a * b;
+                boolean overflow = opcode == ADD
+                        ? ((a ^ result) & (b ^ result)) < 0
+                        : Number.multiplyOverflows(a, b, result);
+                if (!overflow) {
+                    kinds[i] = Number.LONG;
+                    longs[i] = result;
+                    return;
+                }
+            }
+            else if (isPrimitive(leftKind) && isPrimitive(rightKind)) {
+                double a = asDouble(left, leftKind);
+                double b = asDouble(right, rightKind);
+                double result = opcode == ADD ? a + b : a * b;
+                if (!Double.isInfinite(result)) {
+                    set(i, Number.of(result));
+                    return;
+                }
+            }
+            set(i, opcode == ADD ? get(left).add(get(right)) : get(left).multiply(get(right)));
+        }
+
+        Number get(int reference) {
+            if (reference < 0) {
+                return leaves[~reference].evaluate();
+            }
+            switch (kinds[reference]) {
+            case Number.LONG: return Number.of(longs[reference]);
+            case Number.DOUBLE: return Number.of(doubles[reference]);
+            default: return bigs[reference];
+            }
+        }
+
+        private void set(int i, Number value) {
+            kinds[i] = value.kind();
+            if (value.isLong()) {
+                longs[i] = value.longValue();
+            }
+            else if (value.kind() == Number.DOUBLE) {
+                doubles[i] = value.doubleValue();
+            }
+            else {
+                if (bigs == null) {
+                    bigs = new Number[kinds.length];
+                }
+                bigs[i] = value;
+            }
+        }
+
+        private byte kind(int reference) {
+            if (reference >= 0) {
+                return kinds[reference];
+            }
+            Expression leaf = leaves[~reference];
+            return leaf instanceof Number ? ((Number) leaf).kind() : Number.LONG;
+        }
+
+        private long asLong(int reference) {
+            if (reference >= 0) {
+                return longs[reference];
+            }
+            Expression leaf = leaves[~reference];
+            return leaf instanceof Number ? ((Number) leaf).longValue() : leaf.value();
+        }
+
+        private double asDouble(int reference, byte kind) {
+            if (kind == Number.LONG) {
+                return asLong(reference);
+            }
+            return reference >= 0 ? doubles[reference] : ((Number) leaves[~reference]).doubleValue();
+        }
+
+        private boolean isPrimitive(byte kind) {
+            return kind == Number.LONG || kind == Number.DOUBLE;
+        }
+    }
+
+    /**
+     * Compiles the equal object tree; see Expression.compile.
+     */
+    @Override
+    public CompiledExpression compile() {
+        return toTree().compile();
+    }
+
+    /**
+     * Binds the equal object tree; see Expression.bind.
+     */
+    @Override
+    public BoundExpression bind(VariableLayout layout) {
+        return toTree().bind(layout);
+    }
+
+    /**
+     * Evaluates the equal object tree; see Expression.evaluate(Map).
+     */
+    @Override
+    public double[] evaluate(Map<String, double[]> columns) {
+        return toTree().evaluate(columns);
+    }
+
+    /**
+     * @return the same string as the equal object tree, as defined by Add.toString and Multiply.toString
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        print(root, null, result);
+        return result.toString();
+    }
+
+    /**
+     * Print this DAG with let-bound temporaries: every Add or Multiply node with several parents
+     * is printed once, as "let $k = ...", before the first line that refers to it as $k.
+     * @return one "let" line per shared node, in dependency order, then "in " and the root
+     */
+    public String toLetString() {
+        int[] parents = new int[root + 1];
+        for (int i = 0; i <= root; i++) {
+            if (lefts[i] >= 0) parents[lefts[i]]++;
+            if (rights[i] >= 0) parents[rights[i]]++;
+        }
+        int[] temporaries = new int[root + 1];
+        int count = 0;
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i <= root; i++) {
+            temporaries[i] = -1;
+            if (parents[i] > 1 && i != root) {
+                result.append("let $").append(count).append(" = ");
+                print(i, temporaries, result);
+                result.append('\n');
+                temporaries[i] = count++;
+            }
+        }
+        result.append("in ");
+        print(root, temporaries, result);
+        return result.toString();
+    }
+
+    /**
+     * Print the expression at reference start, on an explicit stack.
+     * @param temporaries if not null, nodes i below start with temporaries[i] >= 0
+     *                    are printed as $temporaries[i]
+     */
+    private void print(int start, int[] temporaries, StringBuilder result) {
+        // 0: not entered yet, 1: left operand printed, 2: both operands printed
+        int[] references = new int[16];
+        byte[] states = new byte[16];
+        int top = 0;
+        references[0] = start;
+
+        while (top >= 0) {
+            int reference = references[top];
+            if (reference < 0) {
+                result.append(leaves[~reference]);
+                top--;
+                continue;
+            }
+            if (top > 0 && temporaries != null && temporaries[reference] >= 0) {
+                result.append('$').append(temporaries[reference]);
+                top--;
+                continue;
+            }
+            int operand;
+            switch (states[top]) {
+            case 0:
+                if (opcodes[reference] == ADD) result.append('(');
+                operand = lefts[reference];
+                states[top] = 1;
+                break;
+            case 1:
+                result.append(opcodes[reference] == ADD ? " + " : "*");
+                operand = rights[reference];
+                states[top] = 2;
+                break;
+            default:
+                if (opcodes[reference] == ADD) result.append(')');
+                top--;
+                continue;
+            }
+            if (++top == references.length) {
+                references = Arrays.copyOf(references, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+            }
+            references[top] = operand;
+            states[top] = 0;
+        }
+    }
+
+    /**
+     * Two FlatExpressions are equal if they have the same structure, as defined for
+     * Add and Multiply, however their nodes are stored.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FlatExpression that = (FlatExpression) o;
+        if (hashCode() != that.hashCode()) return false;
+
+        boolean sameArrays = opcodes == that.opcodes;
+        int[] pairs = new int[32];
+        int top = 0;
+        pairs[0] = root;
+        pairs[1] = that.root;
+        while (top >= 0) {
+            int a = pairs[2 * top];
+            int b = pairs[2 * top + 1];
+            top--;
+            if (sameArrays && a == b) {
+                continue;
+            }
+            if (a < 0 || b < 0) {
+                if (a >= 0 || b >= 0 || !leaves[~a].equals(that.leaves[~b])) return false;
+                continue;
+            }
+            if (opcodes[a] != that.opcodes[b]) {
+                return false;
+            }
+            if (2 * (top + 3) > pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            top++;
+            pairs[2 * top] = rights[a];
+            pairs[2 * top + 1] = that.rights[b];
+            top++;
+            pairs[2 * top] = lefts[a];
+            pairs[2 * top + 1] = that.lefts[b];
+        }
+        return true;
+    }
+
+    /**
+     * @return the same hash code as the equal object tree
+     */
+    @Override
+    public int hashCode() {
+        int result = hashCode;
+        if (result == 0) {
+            if (root < 0) {
+                result = leaves[~root].hashCode();
+            } else {
+                int[] hashes = new int[root + 1];
+                for (int i = 0; i <= root; i++) {
+                    int left = lefts[i] >= 0 ? hashes[lefts[i]] : leaves[~lefts[i]].hashCode();
+                    int right = rights[i] >= 0 ? hashes[rights[i]] : leaves[~rights[i]].hashCode();
+                    hashes[i] = opcodes[i] == ADD ? Add.combineHashes(left, right) : Multiply.combineHashes(left, right);
+                }
+                result = hashes[root];
+            }
+            hashCode = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Rewrites polynomial expressions into Horner form, which evaluates them with fewer
+ * multiplications: 2*x*x*x + 3*x*x + x + 5 becomes x*(x*(2*x + 3) + 1) + 5, 3 multiplications
+ * instead of 5, and the same 3 additions.
+ *
+ * The expression is first brought to normal form as a Polynomial, then factored greedily:
+ * the variable v that occurs in the most terms is factored out of them, with the highest
+ * power v^k that divides all of them, giving v^k*A + B + c where c is the constant term,
+ * and A and B are factored the same way. For a univariate polynomial this is exactly the
+ * Horner scheme; for a multivariate one it is the usual greedy multivariate Horner scheme.
+ * An expression that is already cheaper than its Horner form, like a product of sums whose
+ * expansion is large, is kept as it is.
+ *
+ * The Horner form is algebraically equal to the expression. Integer coefficients are exact,
+ * so value() and evaluate() are unchanged, and so are compiled evaluations while every
+ * intermediate value is exact in a double; with decimal coefficients, additions happen in
+ * another order, and doubles may round differently.
+ */
+public class Horner {
+
+    /**
+     * The operations an expression costs to evaluate as a tree: one per Add or Multiply node.
+     */
+    public static final class Cost implements Comparable<Cost> {
+        /*
+            Abstract function:
+                Represent a count of additions and multiplications
+            Rep invariant:
+                additions >= 0, multiplications >= 0
+            Rep exposure:
+                all fields are private, final and immutable
+         */
+        private final long additions;
+        private final long multiplications;
+
+        private Cost(long additions, long multiplications) {
+            this.additions = additions;
+            this.multiplications = multiplications;
+            checkRep();
+        }
+
+        private void checkRep() {
+            assert additions >= 0 && multiplications >= 0;
+        }
+
+        /**
+         * Count the operations of an expression, shared subtrees counted once per occurrence,
+         * as evaluating the tree executes them.
+         * @param expression expression made of Add, Multiply, Number and Var nodes
+         * @return number of Add and of Multiply nodes in the tree of expression
+         */
+        public static Cost of(Expression expression) {
+            long[] counts = new long[2];
+            ExpressionWalker.walk(expression, node -> {
+                if (node instanceof Add) {
+                    counts[0]++;
+                }
+                else if (node instanceof Multiply) {
+                    counts[1]++;
+                }
+            });
+            return new Cost(counts[0], counts[1]);
+        }
+
+        /**
+         * @return number of additions
+         */
+        public long additions() {
+            return additions;
+        }
+
+        /**
+         * @return number of multiplications
+         */
+        public long multiplications() {
+            return multiplications;
+        }
+
+        /**
+         * Order costs by multiplications, then by additions.
+         */
+        @Override
+        public int compareTo(Cost that) {
+            int byMultiplications = Long.compare(multiplications, that.multiplications);
+            return byMultiplications != 0 ? byMultiplications : Long.compare(additions, that.additions);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Cost that = (Cost) o;
+            return additions == that.additions && multiplications == that.multiplications;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(additions) * 31 + Long.hashCode(multiplications);
+        }
+
+        @Override
+        public String toString() {
+            return multiplications + " multiplications, " + additions + " additions";
+        }
+    }
+
+    /** frame of the factoring stack that factors the terms between its bounds */
+    private static final int FACTOR = 0;
+    /** frame of the factoring stack that combines the factored operands of v^k*A + B + c */
+    private static final int COMBINE = 1;
+
+    private Horner() {
+    }
+
+    /**
+     * Rewrite an expression into Horner form, unless that does not make it cheaper.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return an expression algebraically equal to expression, whose Cost is at most
+     *         the Cost of expression
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static Expression optimize(Expression expression) {
+        Expression horner = of(Polynomial.of(expression, Collections.emptyMap()));
+        return Cost.of(horner).compareTo(Cost.of(expression)) < 0 ? horner : expression;
+    }
+
+    /**
+     * Write a polynomial in Horner form.
+     * @param polynomial polynomial to write
+     * @return an expression equal to polynomial, with a minimal number of multiplications
+     *         as far as the greedy choice of variables finds
+     */
+    public static Expression of(Polynomial polynomial) {
+        ExpressionFactory factory = new ExpressionFactory();
+        if (polynomial.terms().isEmpty()) {
+            return factory.number(0);
+        }
+
+        TreeSet<String> names = new TreeSet<>();
+        for (Monomial monomial : polynomial.terms().keySet()) {
+            for (int i = 0; i < monomial.variableCount(); i++) {
+                names.add(monomial.variable(i));
+            }
+        }
+        String[] variables = names.toArray(new String[0]);
+
+        // one row of exponents per term, reordered and divided in place as the terms are factored
+        int[][] exponents = new int[polynomial.terms().size()][];
+        Number[] coefficients = new Number[exponents.length];
+        int t = 0;
+        for (Map.Entry<Monomial, Number> term : polynomial.terms().entrySet()) {
+            Monomial monomial = term.getKey();
+            exponents[t] = new int[variables.length];
+            for (int i = 0; i < monomial.variableCount(); i++) {
+                exponents[t][Arrays.binarySearch(variables, monomial.variable(i))] = monomial.exponent(i);
+            }
+            coefficients[t] = term.getValue();
+            t++;
+        }
+
+        // FACTOR frames: {FACTOR, from, to}
+        // COMBINE frames: {COMBINE, variable, power, index of the constant term or -1, 1 if B exists}
+        Deque<int[]> frames = new ArrayDeque<>();
+        Deque<Expression> results = new ArrayDeque<>();
+        frames.push(new int[] { FACTOR, 0, exponents.length });
+        while (!frames.isEmpty()) {
+            int[] frame = frames.pop();
+            if (frame[0] == COMBINE) {
+                Expression rest = frame[4] == 1 ? results.pop() : null;
+                Expression factored = results.pop();
+                Expression power = factory.variable(variables[frame[1]]);
+                for (int e = 1; e < frame[2]; e++) {
+                    power = factory.multiply(power, factory.variable(variables[frame[1]]));
+                }
+
+                Expression sum;
+                if (factored.equals(Number.of(1))) {
+                    sum = power;
+                }
+                else if (factored instanceof Number) {
+                    sum = factory.multiply(factored, power);
+                }
+                else {
+                    sum = factory.multiply(power, factored);
+                }
+                if (rest != null) {
+                    sum = factory.add(sum, rest);
+                }
+                if (frame[3] >= 0) {
+                    sum = factory.add(sum, factory.number(coefficients[frame[3]]));
+                }
+                results.push(sum);
+                continue;
+            }
+
+            int from = frame[1];
+            int to = frame[2];
+            // the constant term, if any, moves to the end, out of the terms left to factor
+            int constant = -1;
+            for (int i = from; i < to; i++) {
+                if (isConstant(exponents[i])) {
+                    swap(exponents, coefficients, i, to - 1);
+                    constant = --to;
+                    break;
+                }
+            }
+            if (from == to) {
+                results.push(factory.number(coefficients[constant]));
+                continue;
+            }
+
+            // the variable of the most terms, and the highest power of it dividing them all
+            int variable = 0;
+            int mostTerms = 0;
+            for (int v = 0; v < variables.length; v++) {
+                int terms = 0;
+                for (int i = from; i < to; i++) {
+                    if (exponents[i][v] > 0) {
+                        terms++;
+                    }
+                }
+                if (terms > mostTerms) {
+                    variable = v;
+                    mostTerms = terms;
+                }
+            }
+            int power = Integer.MAX_VALUE;
+            int split = from;
+            for (int i = from; i < to; i++) {
+                if (exponents[i][variable] > 0) {
+                    power = Math.min(power, exponents[i][variable]);
+                    swap(exponents, coefficients, i, split++);
+                }
+            }
+            for (int i = from; i < split; i++) {
+                exponents[i][variable] -= power;
+            }
+
+            frames.push(new int[] { COMBINE, variable, power, constant, split < to ? 1 : 0 });
+            if (split < to) {
+                frames.push(new int[] { FACTOR, split, to });
+            }
+            frames.push(new int[] { FACTOR, from, split });
+        }
+        return results.pop();
+    }
+
+    private static boolean isConstant(int[] exponents) {
+        for (int exponent : exponents) {
+            if (exponent != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void swap(int[][] exponents, Number[] coefficients, int i, int j) {
+        int[] row = exponents[i];
+        exponents[i] = exponents[j];
+        exponents[j] = row;
+        Number coefficient = coefficients[i];
+        coefficients[i] = coefficients[j];
+        coefficients[j] = coefficient;
+    }
+}
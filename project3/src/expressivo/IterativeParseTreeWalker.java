@@ -0,0 +1,60 @@
+package expressivo;
+
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.RuleNode;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+
+/**
+ * A ParseTreeWalker that calls the listener in the same order as ParseTreeWalker.DEFAULT,
+ * but keeps the path to the current node on an explicit stack instead of recursing,
+ * so deeply nested parse trees (e.g. long chains of '+') don't overflow the thread stack.
+ */
+class IterativeParseTreeWalker extends ParseTreeWalker {
+
+    @Override
+    public void walk(ParseTreeListener listener, ParseTree root) {
+        ParseTree[] nodes = new ParseTree[16];
+        // index of the next child to walk, or -1 if the node has not been entered yet
+        int[] nextChild = new int[16];
+        int top = 0;
+        nodes[0] = root;
+        nextChild[0] = -1;
+
+        while (top >= 0) {
+            ParseTree node = nodes[top];
+            if (nextChild[top] < 0) {
+                if (node instanceof ErrorNode) {
+                    listener.visitErrorNode((ErrorNode) node);
+                    top--;
+                    continue;
+                }
+                else if (node instanceof TerminalNode) {
+                    listener.visitTerminal((TerminalNode) node);
+                    top--;
+                    continue;
+                }
+                enterRule(listener, (RuleNode) node);
+                nextChild[top] = 0;
+            }
+
+            if (nextChild[top] < node.getChildCount()) {
+                ParseTree child = node.getChild(nextChild[top]++);
+                if (++top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    nextChild = Arrays.copyOf(nextChild, top * 2);
+                }
+                nodes[top] = child;
+                nextChild[top] = -1;
+            }
+            else {
+                exitRule(listener, (RuleNode) node);
+                top--;
+            }
+        }
+    }
+}
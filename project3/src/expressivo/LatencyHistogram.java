@@ -0,0 +1,134 @@
+package expressivo;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of durations in nanoseconds, with log-linear buckets:
+ * every power of two is split into SUB_BUCKETS buckets, so a percentile is known
+ * within 1/SUB_BUCKETS of its value, from 1 ns up to Long.MAX_VALUE ns, in fixed space.
+ *
+ * Recording is a few arithmetic operations and one LongAdder increment, which stays
+ * cheap when many threads record at once.
+ */
+final class LatencyHistogram {
+    /*
+        Abstract function:
+            Represent the multiset of recorded durations, each rounded down to the lower
+            bound of its bucket, plus their exact sum and maximum
+        Rep invariant:
+            buckets.length == 64 * SUB_BUCKETS
+        Rep exposure:
+            all fields are private and never returned
+        Thread safety:
+            every field is a thread-safe counter; a snapshot read while other threads
+            record may mix counts from slightly different moments
+     */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record one duration.
+     * @param nanos duration in nanoseconds; negative durations count as 0
+     */
+    void record(long nanos) {
+        long duration = Math.max(nanos, 0);
+        buckets[bucket(duration)].increment();
+        sum.add(duration);
+        max.accumulate(duration);
+    }
+
+    /**
+     * @return index of the bucket of duration: the power of two below it, then its next SUB_BUCKET_BITS bits
+     */
+    static int bucket(long duration) {
+        if (duration < SUB_BUCKETS) {
+            return (int) duration;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(duration);
+        int subBucket = (int) (duration >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest duration of bucket index
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return mean of the recorded durations, 0 if there are none
+     */
+    double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @return largest recorded duration, 0 if there are none
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return lower bound of the bucket holding the given fraction of the recorded
+     *         durations, 0 if there are none
+     */
+    long percentile(double fraction) {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return lowerBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forget every recorded duration.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+}
@@ -10,9 +10,17 @@ import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,7 +36,15 @@ public class Main {
      * Read expression and command inputs from the console and output results.
      * An empty input terminates the program.
      *
-     * @param args unused
+     * With arguments "--batch FILE [--threads N]", run in batch mode instead: read every
+     * expression and command of FILE ("-" for standard input), run independent jobs in parallel,
+     * and print the output of every line in input order. See BatchRunner.
+     *
+     * The engine metrics are registered as JMX MBeans, see EngineMetrics; if the system property
+     * expressivo.metrics.dump is set to a number of seconds, they are also printed to standard
+     * error that often.
+     *
+     * @param args unused, or the batch mode arguments
      * @throws IOException if there is an error reading the input
      */
     public static void main(String[] args) throws Exception {
@@ -40,13 +56,22 @@ public class Main {
         Map<String, Integer> env = new HashMap<>();
         env.put("x", 1);
         String output = Commands.simplify(input, env);*/
+        EngineMetrics.registerMBeans();
+        final String dumpSeconds = System.getProperty(METRICS_DUMP_PROPERTY);
+        if (dumpSeconds != null) {
+            EngineMetrics.dumpEvery(System.err, Long.parseLong(dumpSeconds), TimeUnit.SECONDS);
+        }
+
+        if (args.length > 0 && args[0].equals(BATCH_OPTION)) {
+            mainBatch(args);
+            return;
+        }
         mainDummy();
     }
 
     public static void mainDummy() throws Exception {
         final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-        Optional<String> currentExpression = Optional.empty();
-        //Expression currentExpression;
+        final Session session = new Session();
 
         while (true) {
             System.out.print("> ");
@@ -56,9 +81,69 @@ public class Main {
                 return; // exits the program
             }
 
+            System.out.println(session.execute(input));
+        }
+    }
+
+    private static final String METRICS_DUMP_PROPERTY = "expressivo.metrics.dump";
+    private static final String BATCH_OPTION = "--batch";
+    private static final String THREADS_OPTION = "--threads";
+
+    private static void mainBatch(String[] args) throws IOException {
+        if (args.length != 2 && !(args.length == 4 && args[2].equals(THREADS_OPTION))) {
+            throw new CommandSyntaxException("usage: " + BATCH_OPTION + " FILE [" + THREADS_OPTION + " N]");
+        }
+        final int threads = args.length == 4 ? Integer.parseInt(args[3])
+                                             : Runtime.getRuntime().availableProcessors();
+
+        final Reader source = args[1].equals("-")
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8);
+        try (BufferedReader in = new BufferedReader(source);
+             BatchRunner runner = new BatchRunner(threads)) {
+            final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            runner.run(in, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * The state of one console session: the current expression, which the
+     * !d/d, !simplify and !horner commands apply to.
+     * It is kept as an AST, so chained commands never print and re-parse it;
+     * printing only happens for display.
+     */
+    static final class Session {
+
+        private Optional<Expression> currentExpression = Optional.empty();
+
+        /**
+         * @return the current expression, empty if no valid expression was entered yet
+         */
+        Optional<Expression> currentExpression() {
+            return currentExpression;
+        }
+
+        /**
+         * Continue from the current expression of another session, as if its lines had been
+         * run in this one first.
+         * @param expression the current expression to continue from
+         */
+        void resume(Optional<Expression> expression) {
+            currentExpression = expression;
+        }
+
+        /**
+         * Run one input line: an expression, which becomes the current expression,
+         * or a command on the current expression.
+         *
+         * @param input a nonempty input line
+         * @return the text to print for this line; errors are reported as text too
+         */
+        String execute(final String input) {
             try {
 
-                final String output;
+                final Expression output;
 
                 if (input.startsWith(DIFFERENTIATE_PREFIX)) {
                     final String variable = parseDifferentiate(input);
@@ -68,25 +153,36 @@ public class Main {
                     final Map<String, Integer> environment = parseSimpify(input);
                     output = Commands.simplify(currentExpression.get(), environment);
                     // ... but don't change currentExpression
-                } else {
-                    /*final Expression expression = Expression.parse(input);
-                    output = expression.toString();
+                } else if (input.startsWith(HORNER_PREFIX)) {
+                    parseHorner(input);
+                    final Expression expression = currentExpression.get();
+                    output = Horner.optimize(expression);
                     currentExpression = Optional.of(output);
-                     */
-                    output = Expression.parse(input).toString();
+                    // one line, so batch outputs stay one per input
+                    return output + "   (" + Horner.Cost.of(expression) + " -> " + Horner.Cost.of(output) + ")";
+                } else {
+                    output = Expression.parse(input);
                     currentExpression = Optional.of(output);
                 }
 
-                System.out.println(output);
+                return output.toString();
             } catch (NoSuchElementException nse) {
                 // currentExpression was empty
-                System.out.println("must enter an expression before using this command");
+                return "must enter an expression before using this command";
             } catch (RuntimeException re) {
-                System.out.println(re.getClass().getName() + ": " + re.getMessage());
+                return re.getClass().getName() + ": " + re.getMessage();
             }
         }
     }
 
+    /**
+     * @return true iff input is a command on the current expression, rather than a new expression
+     */
+    static boolean isCommand(final String input) {
+        return input.startsWith(DIFFERENTIATE_PREFIX) || input.startsWith(SIMPLIFY_PREFIX)
+                || input.startsWith(HORNER_PREFIX);
+    }
+
     private static final String DIFFERENTIATE_PREFIX = "!d/d";
     private static final String VARIABLE = "[A-Za-z]+";
     private static final String DIFFERENTIATE = DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *";
@@ -124,6 +220,15 @@ public class Main {
         return environment;
     }
 
+    private static final String HORNER_PREFIX = "!horner";
+    private static final String HORNER = HORNER_PREFIX + " *";
+
+    private static void parseHorner(final String input) {
+        if (!input.matches(HORNER)) {
+            throw new CommandSyntaxException("usage: !horner takes no arguments");
+        }
+    }
+
     public static class CommandSyntaxException extends RuntimeException {
         private static final long serialVersionUID = 1;
 
@@ -0,0 +1,139 @@
+package expressivo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the expressions of a file written by ExpressionEncoder through a memory mapping,
+ * so that a store of any size is decoded straight from the page cache, without first
+ * copying it onto the heap.
+ *
+ * A single mapping is limited to 2 GB, so the file is mapped as consecutive chunks and
+ * records may span the boundary between two chunks. Only the expressions being decoded
+ * live on the heap; the operating system pages the file in and out as needed.
+ */
+public class MappedExpressionReader implements Closeable {
+    /*
+        Abstract function:
+            Represent the sequence of records of the mapped file, positioned before
+            the next record decoder returns
+        Rep invariant:
+            the chunks cover the file in order, each one but the last holding chunkSize bytes
+        Rep exposure:
+            the mappings are private and never returned
+     */
+    /** size of each mapping, well under the 2 GB limit of a MappedByteBuffer */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    private final long size;
+    private final ExpressionDecoder decoder;
+
+    /**
+     * Map a file and read its header.
+     * @param file file written by ExpressionEncoder
+     * @throws IOException if the file can't be mapped or doesn't start with a valid header
+     */
+    public MappedExpressionReader(Path file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Map a file as chunks of a given size, and read its header.
+     * @param file file written by ExpressionEncoder
+     * @param chunkSize bytes per mapping, positive
+     * @throws IOException if the file can't be mapped or doesn't start with a valid header
+     */
+    MappedExpressionReader(Path file, int chunkSize) throws IOException {
+        MappedByteBuffer[] chunks;
+        // the mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i * chunkSize;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+            }
+        }
+        decoder = new ExpressionDecoder(new MappedInputStream(chunks));
+    }
+
+    /**
+     * @return size of the file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Read the next record.
+     * @return the next expression, or null at the end of the file
+     * @throws IOException if the record is malformed
+     */
+    public Expression read() throws IOException {
+        return decoder.read();
+    }
+
+    /**
+     * Stop reading; the mappings are released once they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        decoder.close();
+    }
+
+    /**
+     * An InputStream reading consecutive mapped chunks in place.
+     */
+    static final class MappedInputStream extends InputStream {
+        private final MappedByteBuffer[] chunks;
+        private int current = 0;
+
+        MappedInputStream(MappedByteBuffer[] chunks) {
+            this.chunks = chunks;
+        }
+
+        /**
+         * @return false iff every chunk has been read
+         */
+        private boolean advance() {
+            while (current < chunks.length && !chunks[current].hasRemaining()) {
+                chunks[current++] = null; // let the finished mapping be unmapped
+            }
+            return current < chunks.length;
+        }
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            return chunks[current].get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(length, chunks[current].remaining());
+            chunks[current].get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+            for (int i = current; i < chunks.length; i++) {
+                chunks[i] = null;
+            }
+            current = chunks.length;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package expressivo;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Probabilistic test of algebraic equivalence, by evaluating both expressions at random points
+ * modulo random primes, without expanding them (Schwartz-Zippel).
+ *
+ * Every number is read as the decimal it is written as, m*10^-k, and taken modulo p as
+ * m times the inverse of 10^k, so the test is exact over the rationals: 0.1 + 0.2 is
+ * equivalent to 0.3, though their doubles differ. Each trial draws a prime p in [2^30, 2^31)
+ * and a value mod p for every variable. Expressions that are equivalent always agree. Two
+ * that are not give a difference polynomial f of total degree at most d, which agrees in
+ * one trial only if p divides every coefficient of f, scaled to integers, or the point is a
+ * root of f mod p: at most H/30 of the 5*10^7 primes in the range divide a nonzero coefficient
+ * of H bits, and at most d/p of the points are roots. So t trials are false positives with
+ * probability at most (H/30 / 5*10^7 + d/2^30)^t, and t is chosen to bring that under the
+ * error bound.
+ *
+ * d and H are bounded in one pass over the distinct nodes, and every trial evaluates every
+ * distinct node once, so the test takes time linear in the number of distinct nodes, even
+ * when a shared DAG, like a derivative, is exponentially larger as a tree.
+ */
+class ModularEquivalence {
+
+    /** default bound on the probability that inequivalent expressions are reported equivalent */
+    static final double DEFAULT_ERROR_BOUND = 1e-12;
+
+    /** bit length of the primes */
+    private static final int PRIME_BITS = 31;
+    /** lower bound on the number of primes of PRIME_BITS bits, there are 50697537 */
+    private static final double PRIME_COUNT = 5e7;
+    /** bits of 10, rounded up: 10^k < 2^(4k) */
+    private static final int BITS_OF_TEN = 4;
+
+    private ModularEquivalence() {
+    }
+
+    /**
+     * Test whether two expressions are algebraically equivalent.
+     * @param a expression made of Add, Multiply, Number and Var nodes
+     * @param b expression made of Add, Multiply, Number and Var nodes
+     * @param errorBound probability, in (0, 1), that may be exceeded by no false positive
+     * @param random source of the primes and points
+     * @return true if a and b are equivalent; if they are not, false except with probability
+     *         at most errorBound
+     * @throws IllegalArgumentException if errorBound is not in (0, 1), if a or b contains any other
+     *         kind of node, or if the degrees or coefficients are too large for any trial to
+     *         tell a and b apart with good probability
+     */
+    static boolean equivalent(Expression a, Expression b, double errorBound, Random random) {
+        if (!(errorBound > 0 && errorBound < 1)) {
+            throw new IllegalArgumentException("error bound must be in (0, 1): " + errorBound);
+        }
+
+        // the distinct nodes of both expressions, every operand before its parents
+        List<Expression> nodes = new ArrayList<>();
+        Map<Expression, Integer> indices = new IdentityHashMap<>();
+        for (Expression root : new Expression[] { a, b }) {
+            ExpressionWalker.walk(root, new ExpressionWalker.Listener() {
+                @Override
+                public boolean enter(Expression node) {
+                    return !indices.containsKey(node);
+                }
+
+                @Override
+                public void exit(Expression node) {
+                    indices.put(node, nodes.size());
+                    nodes.add(node);
+                }
+            });
+        }
+
+        // bounds of the degree, and in bits, of the denominator D and of the sum of the
+        // absolute coefficients of D times the node
+        int size = nodes.size();
+        int[] lefts = new int[size];
+        int[] rights = new int[size];
+        long[] degrees = new long[size];
+        long[] denominatorBits = new long[size];
+        long[] heights = new long[size];
+        BigDecimal[] decimals = new BigDecimal[size];
+        for (int i = 0; i < size; i++) {
+            Expression node = nodes.get(i);
+            if (node instanceof Number) {
+                BigDecimal decimal = decimal((Number) node);
+                decimals[i] = decimal;
+                denominatorBits[i] = BITS_OF_TEN * (long) Math.max(decimal.scale(), 0);
+                heights[i] = decimal.unscaledValue().abs().bitLength() + BITS_OF_TEN * (long) Math.max(-decimal.scale(), 0);
+            }
+            else if (node instanceof Var) {
+                degrees[i] = 1;
+            }
+            else if (node instanceof Add || node instanceof Multiply) {
+                int left = indices.get(ExpressionWalker.left(node));
+                int right = indices.get(ExpressionWalker.right(node));
+                lefts[i] = left;
+                rights[i] = right;
+                denominatorBits[i] = saturatedAdd(denominatorBits[left], denominatorBits[right]);
+                if (node instanceof Add) {
+                    degrees[i] = Math.max(degrees[left], degrees[right]);
+                    heights[i] = sumHeight(heights[left], denominatorBits[left], heights[right], denominatorBits[right]);
+                }
+                else {
+                    degrees[i] = saturatedAdd(degrees[left], degrees[right]);
+                    heights[i] = saturatedAdd(heights[left], heights[right]);
+                }
+            }
+            else {
+                throw new IllegalArgumentException("cannot compare " + node.getClass().getSimpleName());
+            }
+        }
+        int rootA = indices.get(a);
+        int rootB = indices.get(b);
+        long degree = Math.max(degrees[rootA], degrees[rootB]);
+        long height = sumHeight(heights[rootA], denominatorBits[rootA], heights[rootB], denominatorBits[rootB]);
+
+        double falsePositive = height / (double) (PRIME_BITS - 1) / PRIME_COUNT
+                + degree / (double) (1L << (PRIME_BITS - 1));
+        if (falsePositive >= 1) {
+            throw new IllegalArgumentException("degree " + degree + " and coefficients of " + height
+                    + " bits are too large to compare by evaluation");
+        }
+        int trials = (int) Math.max(1, Math.ceil(Math.log(errorBound) / Math.log(falsePositive)));
+
+        for (int trial = 0; trial < trials; trial++) {
+            long p = randomPrime(random);
+            if (!agree(nodes, lefts, rights, decimals, rootA, rootB, p, random)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run one trial: evaluate every node modulo p at a random point.
+     * @return true iff a and b have the same value mod p
+     */
+    private static boolean agree(List<Expression> nodes, int[] lefts, int[] rights, BigDecimal[] decimals,
+                                 int rootA, int rootB, long p, Random random) {
+        BigInteger modulus = BigInteger.valueOf(p);
+        Map<String, Long> point = new HashMap<>();
+        long[] residues = new long[nodes.size()];
+        for (int i = 0; i < residues.length; i++) {
+            Expression node = nodes.get(i);
+            if (node instanceof Number) {
+                residues[i] = residue(decimals[i], modulus);
+            }
+            else if (node instanceof Var) {
+                Long value = point.get(node.toString());
+                if (value == null) {
+                    value = (long) random.nextInt((int) p);
+                    point.put(node.toString(), value);
+                }
+                residues[i] = value;
+            }
+            else {
+                long left = residues[lefts[i]];
+                long right = residues[rights[i]];
+                // residues are below 2^31, so neither the sum nor the product overflows
+                residues[i] = node instanceof Add ? (left + right) % p : left * right % p;
+            }
+        }
+        return residues[rootA] == residues[rootB];
+    }
+
+    /**
+     * @return a prime of PRIME_BITS bits, uniformly distributed over them
+     */
+    private static long randomPrime(Random random) {
+        // BigInteger.probablePrime runs 100 Miller-Rabin rounds, ten times the cost of a small
+        // trial; for numbers below 2^32, bases 2, 7 and 61 decide primality exactly
+        while (true) {
+            long candidate = (1L << (PRIME_BITS - 1)) | random.nextInt(1 << (PRIME_BITS - 1)) | 1;
+            if (isStrongProbablePrime(candidate, 2) && isStrongProbablePrime(candidate, 7)
+                    && isStrongProbablePrime(candidate, 61)) {
+                return candidate;
+            }
+        }
+    }
+
+    /**
+     * @param n odd number below 2^31, greater than base
+     * @return true iff n passes the Miller-Rabin test to base
+     */
+    private static boolean isStrongProbablePrime(long n, long base) {
+        long odd = n - 1;
+        int twos = Long.numberOfTrailingZeros(odd);
+        odd >>= twos;
+
+        long x = 1;
+        for (long power = base, e = odd; e > 0; e >>= 1, power = power * power % n) {
+            if ((e & 1) != 0) {
+                x = x * power % n;
+            }
+        }
+        if (x == 1 || x == n - 1) {
+            return true;
+        }
+        for (int i = 1; i < twos; i++) {
+            x = x * x % n;
+            if (x == n - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number as the decimal it is written as; a double is read as its shortest decimal,
+     *         unless it is an integer, which is read as the exact value it holds
+     */
+    private static BigDecimal decimal(Number number) {
+        if (number.isLong()) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        else if (number.isPrimitive() && !number.isInteger()) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return number.toBigDecimal();
+    }
+
+    /**
+     * @return decimal mod modulus, a prime other than 2 and 5
+     */
+    private static long residue(BigDecimal decimal, BigInteger modulus) {
+        if (decimal.scale() == 0 && decimal.unscaledValue().bitLength() < Long.SIZE) {
+            return Math.floorMod(decimal.unscaledValue().longValue(), modulus.longValue());
+        }
+        BigInteger unscaled = decimal.unscaledValue().mod(modulus);
+        BigInteger scale = BigInteger.TEN.modPow(BigInteger.valueOf(Math.abs(decimal.scale())), modulus);
+        if (decimal.scale() > 0) {
+            scale = scale.modInverse(modulus);
+        }
+        return unscaled.multiply(scale).mod(modulus).longValue();
+    }
+
+    /**
+     * Bound the height of a sum: D(l + r) = Dr*(Dl*l) + Dl*(Dr*r) with D = Dl*Dr.
+     * @return bound on the bits of the sum of the absolute coefficients of D*(l + r)
+     */
+    private static long sumHeight(long leftHeight, long leftDenominator, long rightHeight, long rightDenominator) {
+        return saturatedAdd(Math.max(saturatedAdd(leftHeight, rightDenominator),
+                                     saturatedAdd(rightHeight, leftDenominator)), 1);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,192 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable product of variables raised to positive integer powers, e.g. x^2*y.
+ * The empty product is the monomial ONE.
+ */
+public class Monomial implements Comparable<Monomial> {
+    /*
+        Abstract function:
+            Represent the product of variables[i]^exponents[i] for all i
+        Rep invariant:
+            variables and exponents have the same length,
+            variables is sorted in increasing order with no duplicates,
+            every exponent is positive
+        Rep exposure:
+            All fields are private and final, arrays are never shared with clients
+     */
+    public static final Monomial ONE = new Monomial(new String[0], new int[0]);
+
+    private final String[] variables;
+    private final int[] exponents;
+    private final int degree;
+    private final int hashCode;
+
+    private Monomial(String[] variables, int[] exponents) {
+        this.variables = variables;
+        this.exponents = exponents;
+        this.degree = Arrays.stream(exponents).sum();
+        this.hashCode = 31 * Arrays.hashCode(variables) + Arrays.hashCode(exponents);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert variables.length == exponents.length;
+        for (int i = 0; i < variables.length; i++) {
+            Objects.requireNonNull(variables[i]);
+            assert exponents[i] > 0;
+            assert i == 0 || variables[i - 1].compareTo(variables[i]) < 0;
+        }
+    }
+
+    /**
+     * @param variable a variable name
+     * @return the monomial variable^1
+     */
+    public static Monomial of(String variable) {
+        return new Monomial(new String[] {variable}, new int[] {1});
+    }
+
+    /**
+     * @param variables variable names in increasing order, with no duplicates
+     * @param exponents nonnegative exponent of every variable, indexed like variables
+     * @return the product of variables[i]^exponents[i], leaving out the variables with exponent 0
+     */
+    static Monomial of(String[] variables, int[] exponents) {
+        int count = 0;
+        for (int exponent : exponents) {
+            if (exponent > 0) count++;
+        }
+        if (count == 0) {
+            return ONE;
+        }
+        String[] presentVariables = new String[count];
+        int[] presentExponents = new int[count];
+        int k = 0;
+        for (int i = 0; i < exponents.length; i++) {
+            if (exponents[i] > 0) {
+                presentVariables[k] = variables[i];
+                presentExponents[k++] = exponents[i];
+            }
+        }
+        return new Monomial(presentVariables, presentExponents);
+    }
+
+    /**
+     * @return the product of this and that
+     */
+    public Monomial multiply(Monomial that) {
+        String[] productVariables = new String[variables.length + that.variables.length];
+        int[] productExponents = new int[productVariables.length];
+        int i = 0, j = 0, k = 0;
+        while (i < variables.length || j < that.variables.length) {
+            int order = i == variables.length ? 1
+                      : j == that.variables.length ? -1
+                      : variables[i].compareTo(that.variables[j]);
+            if (order < 0) {
+                productVariables[k] = variables[i];
+                productExponents[k++] = exponents[i++];
+            }
+            else if (order > 0) {
+                productVariables[k] = that.variables[j];
+                productExponents[k++] = that.exponents[j++];
+            }
+            else {
+                productVariables[k] = variables[i];
+                productExponents[k++] = Math.addExact(exponents[i++], that.exponents[j++]);
+            }
+        }
+        return new Monomial(Arrays.copyOf(productVariables, k), Arrays.copyOf(productExponents, k));
+    }
+
+    /**
+     * @return total degree, the sum of all exponents
+     */
+    public int degree() {
+        return degree;
+    }
+
+    /**
+     * @return number of distinct variables in this monomial
+     */
+    public int variableCount() {
+        return variables.length;
+    }
+
+    /**
+     * @param index index of a variable, 0 <= index < variableCount(), in increasing name order
+     * @return name of the variable
+     */
+    public String variable(int index) {
+        return variables[index];
+    }
+
+    /**
+     * @param index index of a variable, 0 <= index < variableCount(), in increasing name order
+     * @return exponent of the variable
+     */
+    public int exponent(int index) {
+        return exponents[index];
+    }
+
+    /**
+     * Graded lexicographic order: higher total degree first, then by comparing exponents
+     * variable by variable in increasing name order, higher exponent first.
+     */
+    @Override
+    public int compareTo(Monomial that) {
+        if (degree != that.degree) {
+            return Integer.compare(that.degree, degree);
+        }
+        int i = 0, j = 0;
+        while (i < variables.length && j < that.variables.length) {
+            int order = variables[i].compareTo(that.variables[j]);
+            if (order != 0) {
+                // the monomial containing the smaller variable has the higher exponent on it
+                return order;
+            }
+            if (exponents[i] != that.exponents[j]) {
+                return Integer.compare(that.exponents[j], exponents[i]);
+            }
+            i++;
+            j++;
+        }
+        return Integer.compare(that.variables.length - j, variables.length - i);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Monomial monomial = (Monomial) o;
+        return hashCode == monomial.hashCode
+                && Arrays.equals(variables, monomial.variables)
+                && Arrays.equals(exponents, monomial.exponents);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * @return the monomial as a product, e.g. x*x*y, or 1 for ONE
+     */
+    @Override
+    public String toString() {
+        if (variables.length == 0) {
+            return "1";
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < variables.length; i++) {
+            for (int e = 0; e < exponents[i]; e++) {
+                if (result.length() > 0) result.append('*');
+                result.append(variables[i]);
+            }
+        }
+        return result.toString();
+    }
+}
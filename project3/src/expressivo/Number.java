@@ -1,38 +1,320 @@
 package expressivo;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Objects;
 
 public class Number implements Expression{
     /*
         Abstract function:
-            Represent a number: int
+            Represent a number: an integer or a decimal of any size.
+            kind tells which field holds the value:
+                LONG: longValue, DOUBLE: doubleValue, BIG_INTEGER: bigValue, BIG_DECIMAL: bigValue
         Rep invariant:
-            value must not be null
+            every value has one (canonical) representation, the first one that fits of:
+                LONG         an integer in the range of long
+                DOUBLE       a finite double that is not an integer in the range of long;
+                             an integer beyond long only if it was rounded to a double by
+                             decimal arithmetic, which is never the case for integers
+                BIG_INTEGER  an integer beyond the range of long
+                BIG_DECIMAL  any other value, with no trailing zeros
+            bigValue is null iff kind is LONG or DOUBLE
         Rep exposure:
-            All fields are private and final, primitive type are immutable by default
+            All fields are private and final, primitive type, BigInteger and BigDecimal
+            are immutable
      */
-    private final int value;
+    static final byte LONG = 0;
+    static final byte DOUBLE = 1;
+    static final byte BIG_INTEGER = 2;
+    static final byte BIG_DECIMAL = 3;
+
+    private static final Number ZERO = new Number(0);
+    private static final Number ONE = new Number(1);
+
+    private final byte kind;
+    private final long longValue;
+    private final double doubleValue;
+    private final java.lang.Number bigValue;
 
     public Number(int value){
-        this.value = value;
+        this(LONG, value, 0, null);
+    }
+
+    private Number(byte kind, long longValue, double doubleValue, java.lang.Number bigValue) {
+        this.kind = kind;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.bigValue = bigValue;
         checkRep();
     }
 
     private void checkRep(){
-        Objects.requireNonNull(value);
+        assert (bigValue == null) == (kind == LONG || kind == DOUBLE);
+        assert kind != DOUBLE || (!Double.isInfinite(doubleValue) && !Double.isNaN(doubleValue) && !fitsLong(doubleValue));
+    }
+
+    /**
+     * @return the number equal to value
+     */
+    public static Number of(long value) {
+        if (value == 0) return ZERO;
+        if (value == 1) return ONE;
+        return new Number(LONG, value, 0, null);
+    }
+
+    /**
+     * @param value a finite double
+     * @return the number equal to value
+     */
+    public static Number of(double value) {
+        if (fitsLong(value)) {
+            return of((long) value);
+        }
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new IllegalArgumentException("not a finite number: " + value);
+        }
+        return new Number(DOUBLE, 0, value, null);
+    }
+
+    /**
+     * @return the number equal to value
+     */
+    public static Number of(BigInteger value) {
+        if (value.bitLength() < Long.SIZE) {
+            return of(value.longValue());
+        }
+        // even when a double holds it exactly: arithmetic on a double would round the next result
+        return new Number(BIG_INTEGER, 0, 0, value);
+    }
+
+    /**
+     * @return the number equal to value
+     */
+    public static Number of(BigDecimal value) {
+        if (value.signum() == 0) {
+            return ZERO;
+        }
+        BigDecimal stripped = value.stripTrailingZeros();
+        if (stripped.scale() <= 0) {
+            return of(stripped.toBigIntegerExact());
+        }
+        double approximation = stripped.doubleValue();
+        if (!Double.isInfinite(approximation) && new BigDecimal(approximation).compareTo(stripped) == 0) {
+            return new Number(DOUBLE, 0, approximation, null);
+        }
+        return new Number(BIG_DECIMAL, 0, 0, stripped);
+    }
+
+    /**
+     * Parse a NUMBER token of the grammar: digits, optionally followed by '.' and digits.
+     * Integers are exact; decimals are rounded to the nearest double, unless they
+     * are too large for a double, in which case they are exact too.
+     * @param literal a NUMBER token
+     * @return the number it represents
+     * @throws NumberFormatException if literal is not a NUMBER token
+     */
+    public static Number parse(String literal) {
+        if (literal.indexOf('.') < 0) {
+            // up to 18 digits always fit in a long
+            return literal.length() <= 18 ? of(Long.parseLong(literal)) : of(new BigInteger(literal));
+        }
+        double value = Double.parseDouble(literal);
+        return Double.isInfinite(value) ? of(new BigDecimal(literal)) : of(value);
+    }
+
+    static boolean fitsLong(double value) {
+        // 2^63 is exactly a double, while Long.MAX_VALUE is not
+        return value == Math.rint(value) && value >= -0x1p63 && value < 0x1p63;
+    }
+
+    /**
+     * @return this + that; rounded to a double if one of them is a double and the other one a long
+     *         or a double, unless that would overflow; exact otherwise
+     */
+    public Number add(Number that) {
+        if (kind == LONG && that.kind == LONG) {
+            long sum = longValue + that.longValue;
+            // overflow iff both operands have the same sign and the sum has the other one
+            if (((longValue ^ sum) & (that.longValue ^ sum)) >= 0) {
+                return of(sum);
+            }
+            return of(BigInteger.valueOf(longValue).add(BigInteger.valueOf(that.longValue)));
+        }
+        if (isPrimitive() && that.isPrimitive()) {
+            double sum = doubleValue() + that.doubleValue();
+            if (!Double.isInfinite(sum)) {
+                return of(sum);
+            }
+        }
+        return exactAdd(that);
+    }
+
+    /**
+     * @return this * that; rounded to a double if one of them is a double and the other one a long
+     *         or a double, unless that would overflow; exact otherwise
+     */
+    public Number multiply(Number that) {
+        if (kind == LONG && that.kind == LONG) {
+            long product = longValue * that.longValue;
+            if (!multiplyOverflows(longValue, that.longValue, product)) {
+                return of(product);
+            }
+            return of(BigInteger.valueOf(longValue).multiply(BigInteger.valueOf(that.longValue)));
+        }
+        if (isPrimitive() && that.isPrimitive()) {
+            double product = doubleValue() * that.doubleValue();
+            if (!Double.isInfinite(product)) {
+                return of(product);
+            }
+        }
+        return exactMultiply(that);
+    }
+
+    /**
+     * @return true iff the long product a * b, which wrapped around to product, overflowed
+     */
+    static boolean multiplyOverflows(long a, long b, long product) {
+        // same test as Math.multiplyExact, without the exception
+        long magnitudes = Math.abs(a) | Math.abs(b);
+        if ((magnitudes >>> 31) == 0) {
+            return false;
+        }
+        return (b != 0 && product / b != a) || (a == Long.MIN_VALUE && b == -1);
+    }
+
+    private Number exactAdd(Number that) {
+        if (isInteger() && that.isInteger()) {
+            return of(toBigInteger().add(that.toBigInteger()));
+        }
+        return of(toBigDecimal().add(that.toBigDecimal()));
+    }
+
+    private Number exactMultiply(Number that) {
+        if (isInteger() && that.isInteger()) {
+            return of(toBigInteger().multiply(that.toBigInteger()));
+        }
+        return of(toBigDecimal().multiply(that.toBigDecimal()));
     }
 
+    /**
+     * @return the kind of representation of this number, one of LONG, DOUBLE, BIG_INTEGER, BIG_DECIMAL
+     */
+    byte kind() {
+        return kind;
+    }
+
+    /**
+     * @return true iff this number is held in a long or a double
+     */
+    public boolean isPrimitive() {
+        return kind == LONG || kind == DOUBLE;
+    }
+
+    /**
+     * @return true iff this number is an integer held in a long
+     */
+    public boolean isLong() {
+        return kind == LONG;
+    }
+
+    /**
+     * @return true iff this number is an integer, of any size
+     */
+    public boolean isInteger() {
+        return kind == LONG || kind == BIG_INTEGER || (kind == DOUBLE && doubleValue == Math.rint(doubleValue));
+    }
+
+    /**
+     * @return true iff this number is 0
+     */
+    public boolean isZero() {
+        return kind == LONG && longValue == 0;
+    }
+
+    /**
+     * @return this number as a long
+     * @throws ArithmeticException if it is not an integer in the range of long
+     */
+    public long longValue() {
+        if (kind != LONG) {
+            throw new ArithmeticException("not a long: " + this);
+        }
+        return longValue;
+    }
+
+    /**
+     * @return this number as the nearest double, possibly infinite for big numbers
+     */
+    public double doubleValue() {
+        switch (kind) {
+        case LONG: return longValue;
+        case DOUBLE: return doubleValue;
+        default: return bigValue.doubleValue();
+        }
+    }
+
+    /**
+     * @return this number, exactly, as a BigDecimal
+     */
+    public BigDecimal toBigDecimal() {
+        switch (kind) {
+        case LONG: return BigDecimal.valueOf(longValue);
+        case DOUBLE: return new BigDecimal(doubleValue);
+        case BIG_INTEGER: return new BigDecimal((BigInteger) bigValue);
+        default: return (BigDecimal) bigValue;
+        }
+    }
+
+    /**
+     * @return this number as a BigInteger, rounded toward zero if it is not an integer
+     */
+    public BigInteger toBigInteger() {
+        switch (kind) {
+        case LONG: return BigInteger.valueOf(longValue);
+        case BIG_INTEGER: return (BigInteger) bigValue;
+        default: return toBigDecimal().toBigInteger();
+        }
+    }
+
+    /**
+     * @return this number as an int
+     * @throws ArithmeticException if it is not an integer in the range of int
+     */
     public int value() {
-        return value;
+        return Math.toIntExact(longValue());
     }
 
+    @Override
+    public Number evaluate() {
+        return this;
+    }
+
+    /**
+     * @return the number in plain decimal notation, which the grammar can parse back to an equal number
+     */
     @Override
     public String toString() {
-        return String.valueOf(value);
+        switch (kind) {
+        case LONG:
+            return String.valueOf(longValue);
+        case DOUBLE:
+            // integral doubles beyond long are printed exactly, as decimals so that they parse
+            // back to doubles and not to integers, others with their shortest digits
+            return doubleValue == Math.rint(doubleValue)
+                    ? new BigDecimal(doubleValue).toPlainString() + ".0"
+                    : new BigDecimal(Double.toString(doubleValue)).stripTrailingZeros().toPlainString();
+        case BIG_INTEGER:
+            return bigValue.toString();
+        default:
+            return ((BigDecimal) bigValue).toPlainString();
+        }
     }
 
     /**  2 Num objects are equals if:
      *      Both can be converted to the same absolute value (Ex: 1 == 1.00)
+     *   Since every value has a single canonical representation, that is
+     *   the same kind holding the same value. An integer beyond long rounded by
+     *   decimal arithmetic is a double, and not equal to the exact integer.
      * @param o
      * @return
      */
@@ -41,11 +323,18 @@ public class Number implements Expression{
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Number num = (Number) o;
-        return value == num.value;
+        return kind == num.kind
+                && longValue == num.longValue
+                && Double.compare(doubleValue, num.doubleValue) == 0
+                && Objects.equals(bigValue, num.bigValue);
     }
 
     @Override
     public int hashCode() {
-        return Integer.hashCode(value);
+        switch (kind) {
+        case LONG: return Long.hashCode(longValue);
+        case DOUBLE: return Double.hashCode(doubleValue);
+        default: return bigValue.hashCode();
+        }
     }
 }
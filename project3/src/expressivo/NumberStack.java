@@ -0,0 +1,161 @@
+package expressivo;
+
+import java.util.Arrays;
+
+/**
+ * A growable stack of numbers for evaluating postfix programs exactly, as defined by
+ * Expression.evaluate. Numbers are held in primitive arrays while they fit a long or a double;
+ * only numbers that overflow both are kept as Number objects.
+ */
+final class NumberStack {
+    /*
+        Abstract function:
+            Represent the stack of the first size numbers, bottom first; the i-th one is
+            longs[i], doubles[i] or bigs[i] depending on kinds[i]
+        Rep invariant:
+            kinds, longs and doubles have the same length, and so does bigs if not null,
+            0 <= size <= kinds.length,
+            every number is in the canonical representation of Number
+        Rep exposure:
+            the arrays are private and never returned
+     */
+    private byte[] kinds;
+    private long[] longs;
+    private double[] doubles;
+    private Number[] bigs; // allocated on the first overflow
+    private int size = 0;
+
+    /**
+     * Make an empty stack.
+     * @param capacity number of elements to hold before growing, positive
+     */
+    NumberStack(int capacity) {
+        kinds = new byte[capacity];
+        longs = new long[capacity];
+        doubles = new double[capacity];
+    }
+
+    void push(long value) {
+        grow();
+        kinds[size] = Number.LONG;
+        longs[size++] = value;
+    }
+
+    void push(Number value) {
+        if (value.isLong()) {
+            push(value.longValue());
+        }
+        else if (value.kind() == Number.DOUBLE) {
+            pushDouble(value.doubleValue());
+        }
+        else {
+            grow();
+            if (bigs == null) {
+                bigs = new Number[kinds.length];
+            }
+            kinds[size] = value.kind();
+            bigs[size++] = value;
+        }
+    }
+
+    /**
+     * Push a finite double, as a long if it is an integer in the range of long.
+     */
+    void pushDouble(double value) {
+        if (Number.fitsLong(value)) {
+            push((long) value);
+        }
+        else {
+            grow();
+            kinds[size] = Number.DOUBLE;
+            doubles[size++] = value;
+        }
+    }
+
+    /**
+     * Replace the two numbers on top by their sum.
+     */
+    void add() {
+        int right = size - 1;
+        int left = size - 2;
+        if (kinds[left] == Number.LONG && kinds[right] == Number.LONG) {
+            long a = longs[left];
+            long b = longs[right];
+            long sum = a + b;
+            if (((a ^ sum) & (b ^ sum)) >= 0) {
+                size--;
+                longs[left] = sum;
+                return;
+            }
+        }
+        else if (isPrimitive(left) && isPrimitive(right)) {
+            double sum = asDouble(left) + asDouble(right);
+            if (!Double.isInfinite(sum)) {
+                size -= 2;
+                pushDouble(sum);
+                return;
+            }
+        }
+        Number b = pop();
+        push(pop().add(b));
+    }
+
+    /**
+     * Replace the two numbers on top by their product.
+     */
+    void multiply() {
+        int right = size - 1;
+        int left = size - 2;
+        if (kinds[left] == Number.LONG && kinds[right] == Number.LONG) {
+            long a = longs[left];
+            long b = longs[right];
+            long product = a * b;
+            if (!Number.multiplyOverflows(a, b, product)) {
+                size--;
+                longs[left] = product;
+                return;
+            }
+        }
+        else if (isPrimitive(left) && isPrimitive(right)) {
+            double product = asDouble(left) * asDouble(right);
+            if (!Double.isInfinite(product)) {
+                size -= 2;
+                pushDouble(product);
+                return;
+            }
+        }
+        Number b = pop();
+        push(pop().multiply(b));
+    }
+
+    Number pop() {
+        size--;
+        switch (kinds[size]) {
+        case Number.LONG: return Number.of(longs[size]);
+        case Number.DOUBLE: return Number.of(doubles[size]);
+        default:
+            Number value = bigs[size];
+            bigs[size] = null;
+            return value;
+        }
+    }
+
+    private boolean isPrimitive(int index) {
+        return kinds[index] == Number.LONG || kinds[index] == Number.DOUBLE;
+    }
+
+    private double asDouble(int index) {
+        return kinds[index] == Number.LONG ? longs[index] : doubles[index];
+    }
+
+    private void grow() {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            longs = Arrays.copyOf(longs, size * 2);
+            doubles = Arrays.copyOf(doubles, size * 2);
+            if (bigs != null) {
+                bigs = Arrays.copyOf(bigs, size * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package expressivo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe metrics of one operation of the expression engine: number of calls and failures,
+ * and for a random sample of the calls, the latency histogram, the length of the input text and
+ * the tree sizes of the input and output expressions.
+ *
+ * A call is recorded as:
+ *     long start = metrics.start();
+ *     ... operation ...
+ *     metrics.succeeded(start, inputLength, nodesIn, nodesOut);  // or failed(start, inputLength)
+ * Unsampled calls only cost one random draw and one LongAdder increment; sampled calls add
+ * two System.nanoTime calls and a few more increments. Tree sizes are read from the size
+ * cached in every node, so no call walks an expression for the metrics' sake.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    /*
+        Abstract function:
+            Represent the calls of operation name since the last reset: count of them,
+            failures of them, and the latency and sizes of the sampled ones
+        Rep invariant:
+            sampleInterval >= 0
+        Rep exposure:
+            all fields are private, counters are never returned
+        Thread safety:
+            every counter is thread-safe, sampleInterval is volatile
+     */
+    /**
+     * default sample interval: timing every call would double the cost of a parse
+     * answered from the cache, one in 16 keeps the overhead to a few nanoseconds
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    /** value of start() for a call that is not sampled */
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final String name;
+    private volatile int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder inputLength = new LongAdder();
+    private final LongAdder nodesIn = new LongAdder();
+    private final LongAdder nodesOut = new LongAdder();
+
+    /**
+     * Make empty metrics.
+     * @param name name of the operation, as shown in dumps and JMX
+     */
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the operation
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Set how many calls are made for each sampled one.
+     * @param interval 1 to sample every call, n to sample one call in n on average, 0 to sample none
+     * @throws IllegalArgumentException if interval is negative
+     */
+    public void setSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("sample interval must be nonnegative: " + interval);
+        }
+        sampleInterval = interval;
+    }
+
+    /**
+     * @return how many calls are made for each sampled one, 0 if none is
+     */
+    public int sampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Start a call of the operation.
+     * @return the value to pass to succeeded or failed: the start time if the call is sampled,
+     *         else NOT_SAMPLED
+     */
+    public long start() {
+        count.increment();
+        int interval = sampleInterval;
+        if (interval == 0 || (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0)) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish a call of the operation that returned.
+     * @param start value returned by start() for this call
+     * @param inputLength length of the input text, 0 if the input is not text
+     * @param nodesIn tree size of the input expression, 0 if the input is not an expression
+     * @param nodesOut tree size of the output expression
+     */
+    public void succeeded(long start, long inputLength, long nodesIn, long nodesOut) {
+        if (start == NOT_SAMPLED) {
+            return;
+        }
+        latencies.record(System.nanoTime() - start);
+        sampled.increment();
+        this.inputLength.add(inputLength);
+        this.nodesIn.add(nodesIn);
+        this.nodesOut.add(nodesOut);
+    }
+
+    /**
+     * Finish a call of the operation that threw.
+     * @param start value returned by start() for this call
+     * @param inputLength length of the input text, 0 if the input is not text
+     */
+    public void failed(long start, long inputLength) {
+        failures.increment();
+        if (start == NOT_SAMPLED) {
+            return;
+        }
+        latencies.record(System.nanoTime() - start);
+        sampled.increment();
+        this.inputLength.add(inputLength);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        return latencies.mean();
+    }
+
+    @Override
+    public long getP50LatencyNanos() {
+        return latencies.percentile(0.5);
+    }
+
+    @Override
+    public long getP99LatencyNanos() {
+        return latencies.percentile(0.99);
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return latencies.max();
+    }
+
+    @Override
+    public double getMeanInputLength() {
+        return mean(inputLength);
+    }
+
+    @Override
+    public double getMeanNodesIn() {
+        return mean(nodesIn);
+    }
+
+    @Override
+    public double getMeanNodesOut() {
+        return mean(nodesOut);
+    }
+
+    @Override
+    public double getGrowthRatio() {
+        long in = nodesIn.sum();
+        return in == 0 ? 0 : (double) nodesOut.sum() / in;
+    }
+
+    private double mean(LongAdder total) {
+        long samples = sampled.sum();
+        return samples == 0 ? 0 : (double) total.sum() / samples;
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        failures.reset();
+        sampled.reset();
+        latencies.reset();
+        inputLength.reset();
+        nodesIn.reset();
+        nodesOut.reset();
+    }
+
+    /**
+     * @return one line summing up the metrics, as in the periodic dump of EngineMetrics
+     */
+    @Override
+    public String toString() {
+        return String.format("%-13s count=%d failures=%d sampled=%d latency(ns) mean=%.0f p50=%d p99=%d max=%d"
+                        + " input=%.1f nodesIn=%.1f nodesOut=%.1f growth=%.2f",
+                name, getCount(), getFailures(), getSampled(), getMeanLatencyNanos(), getP50LatencyNanos(),
+                getP99LatencyNanos(), getMaxLatencyNanos(), getMeanInputLength(), getMeanNodesIn(),
+                getMeanNodesOut(), getGrowthRatio());
+    }
+}
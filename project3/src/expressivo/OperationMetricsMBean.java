@@ -0,0 +1,44 @@
+package expressivo;
+
+/**
+ * JMX view of the metrics of one operation of the expression engine, see OperationMetrics.
+ * Latencies are in nanoseconds, and only cover the sampled calls.
+ */
+public interface OperationMetricsMBean {
+
+    /** @return number of calls, sampled or not */
+    long getCount();
+
+    /** @return number of calls that threw */
+    long getFailures();
+
+    /** @return number of calls whose latency and sizes were recorded */
+    long getSampled();
+
+    /** @return mean latency of the sampled calls */
+    double getMeanLatencyNanos();
+
+    /** @return median latency of the sampled calls */
+    long getP50LatencyNanos();
+
+    /** @return 99th percentile latency of the sampled calls */
+    long getP99LatencyNanos();
+
+    /** @return largest latency of the sampled calls */
+    long getMaxLatencyNanos();
+
+    /** @return mean length of the input text, 0 for operations that take an AST */
+    double getMeanInputLength();
+
+    /** @return mean tree size of the input expression, 0 for operations that take text */
+    double getMeanNodesIn();
+
+    /** @return mean tree size of the output expression */
+    double getMeanNodesOut();
+
+    /** @return total output nodes over total input nodes, e.g. the growth of derivatives; 0 without input nodes */
+    double getGrowthRatio();
+
+    /** Forget everything recorded so far. */
+    void reset();
+}
@@ -0,0 +1,388 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Multiplication of large Polynomials on packed exponents.
+ *
+ * Every monomial of the two operands is packed into one long, the mixed-radix number whose
+ * digits are its exponents, with one digit per variable of either operand and the radix of
+ * a variable larger than its exponent in any product. Multiplying two monomials is then
+ * adding their keys, with no carry between digits, and the terms of the product are
+ * collected in an open-addressing table of longs instead of a TreeMap of Monomial objects.
+ *
+ * When the operands are dense enough, and every coefficient of the product is known to fit
+ * a long, the keys are used for Kronecker substitution instead: each operand becomes the
+ * univariate polynomial whose exponent key has the coefficient of that key, and the two
+ * dense coefficient arrays are multiplied by Karatsuba, in about slots^1.58 operations
+ * instead of one per pair of terms.
+ *
+ * The slots cover every combination of exponents up to the maximum of each variable, so
+ * Kronecker substitution suits univariate operands, and multivariate ones dense in every
+ * exponent, like all x^i*y^j with i, j <= 31. Operands dense in total degree fill only a
+ * corner of the slots, and under this heuristic never take the Kronecker path with three
+ * or more variables, and with two only from degree 70 up: (x + y + z + 1)^8 squared has
+ * 165^2 pairs but 17^3 slots, and goes term by term.
+ *
+ * Coefficients are added in the same order as Polynomial's term-by-term product, so results
+ * with decimal coefficients are the same too.
+ */
+final class PackedMultiplication {
+
+    /** operands with fewer term pairs are not worth packing */
+    static final long MIN_PAIRS = 64;
+    /** Kronecker substitution needs at least this many term pairs */
+    static final long KRONECKER_MIN_PAIRS = 1 << 12;
+    /** Kronecker substitution is used up to this many coefficients in its dense arrays */
+    static final long KRONECKER_MAX_SLOTS = 1 << 24;
+    /** Karatsuba multiplies arrays of n coefficients in about n^KARATSUBA_EXPONENT operations */
+    private static final double KARATSUBA_EXPONENT = Math.log(3) / Math.log(2);
+
+    private static final long EMPTY = -1;
+
+    private PackedMultiplication() {
+    }
+
+    /**
+     * The terms of a polynomial with packed monomials, in the order of Polynomial.terms().
+     */
+    private static final class Packed {
+        final long[] keys;
+        final Number[] coefficients;
+        // true iff every coefficient is a long, and a nonnegative one for nonnegativeLongs
+        final boolean longs;
+        final boolean nonnegativeLongs;
+        final long maxCoefficient;
+
+        Packed(Polynomial polynomial, String[] variables, long[] strides) {
+            int size = polynomial.terms().size();
+            keys = new long[size];
+            coefficients = new Number[size];
+            boolean allLongs = true;
+            boolean allNonnegative = true;
+            long max = 0;
+            int t = 0;
+            for (Map.Entry<Monomial, Number> term : polynomial.terms().entrySet()) {
+                Monomial monomial = term.getKey();
+                long key = 0;
+                for (int i = 0; i < monomial.variableCount(); i++) {
+                    key += monomial.exponent(i) * strides[Arrays.binarySearch(variables, monomial.variable(i))];
+                }
+                keys[t] = key;
+                Number coefficient = term.getValue();
+                coefficients[t++] = coefficient;
+                if (coefficient.isLong()) {
+                    allNonnegative &= coefficient.longValue() >= 0;
+                    max = Math.max(max, coefficient.longValue());
+                } else {
+                    allLongs = false;
+                }
+            }
+            longs = allLongs;
+            nonnegativeLongs = allLongs && allNonnegative;
+            maxCoefficient = max;
+        }
+    }
+
+    /**
+     * @return a * b, or null if the exponents of the product don't pack into a long
+     */
+    static Polynomial multiply(Polynomial a, Polynomial b) {
+        TreeSet<String> names = new TreeSet<>();
+        addVariables(a, names);
+        addVariables(b, names);
+        String[] variables = names.toArray(new String[0]);
+        int[] maxA = maxExponents(a, variables);
+        int[] maxB = maxExponents(b, variables);
+
+        // the first variable gets the largest stride, every radix is one more than the
+        // largest exponent of its variable in the product
+        long[] strides = new long[variables.length];
+        long slots = 1;
+        for (int i = variables.length - 1; i >= 0; i--) {
+            strides[i] = slots;
+            long radix = (long) maxA[i] + maxB[i] + 1;
+            if (radix > Integer.MAX_VALUE || slots > Long.MAX_VALUE / radix) {
+                return null;
+            }
+            slots *= radix;
+        }
+
+        Packed left = new Packed(a, variables, strides);
+        Packed right = new Packed(b, variables, strides);
+        long pairs = (long) left.keys.length * right.keys.length;
+        // every coefficient of the product is a sum of at most min(sizes) products
+        int productBits = 64 - Long.numberOfLeadingZeros(left.maxCoefficient)
+                + 64 - Long.numberOfLeadingZeros(right.maxCoefficient)
+                + 64 - Long.numberOfLeadingZeros(Math.min(left.keys.length, right.keys.length));
+
+        TermTable product;
+        if (left.nonnegativeLongs && right.nonnegativeLongs && productBits < Long.SIZE
+                && pairs >= KRONECKER_MIN_PAIRS && slots <= KRONECKER_MAX_SLOTS
+                && Math.pow(slots, KARATSUBA_EXPONENT) < pairs) {
+            product = kronecker(left, right);
+        } else {
+            product = termByTerm(left, right);
+        }
+        return product.toPolynomial(variables, strides);
+    }
+
+    private static void addVariables(Polynomial polynomial, TreeSet<String> names) {
+        for (Monomial monomial : polynomial.terms().keySet()) {
+            for (int i = 0; i < monomial.variableCount(); i++) {
+                names.add(monomial.variable(i));
+            }
+        }
+    }
+
+    private static int[] maxExponents(Polynomial polynomial, String[] variables) {
+        int[] max = new int[variables.length];
+        for (Monomial monomial : polynomial.terms().keySet()) {
+            for (int i = 0; i < monomial.variableCount(); i++) {
+                int index = Arrays.binarySearch(variables, monomial.variable(i));
+                max[index] = Math.max(max[index], monomial.exponent(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Multiply every term of left by every term of right, collecting like terms by key.
+     */
+    private static TermTable termByTerm(Packed left, Packed right) {
+        TermTable table = new TermTable(left.keys.length + right.keys.length);
+        boolean longs = left.longs && right.longs;
+        for (int i = 0; i < left.keys.length; i++) {
+            long key = left.keys[i];
+            Number coefficient = left.coefficients[i];
+            long value = longs ? coefficient.longValue() : 0;
+            for (int j = 0; j < right.keys.length; j++) {
+                if (longs) {
+                    long other = right.coefficients[j].longValue();
+                    long product = value * other;
+                    if (!Number.multiplyOverflows(value, other, product)) {
+                        table.add(key + right.keys[j], product);
+                        continue;
+                    }
+                }
+                table.add(key + right.keys[j], coefficient.multiply(right.coefficients[j]));
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Multiply by Kronecker substitution: the keys are the exponents of univariate polynomials,
+     * whose dense coefficient arrays are multiplied by Karatsuba.
+     * Karatsuba computes modulo 2^64, so its intermediate sums may wrap around, but every
+     * coefficient of the product is exact, since the caller checked that it fits a long.
+     */
+    private static TermTable kronecker(Packed left, Packed right) {
+        long[] a = dense(left);
+        long[] b = dense(right);
+        int length = Math.max(a.length, b.length);
+        long[] product = new long[2 * length - 1];
+        karatsuba(Arrays.copyOf(a, length), Arrays.copyOf(b, length), product);
+
+        TermTable table = new TermTable(left.keys.length + right.keys.length);
+        for (int key = 0; key < a.length + b.length - 1; key++) {
+            if (product[key] != 0) {
+                table.add(key, product[key]);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the coefficients of packed indexed by key, up to its largest key
+     */
+    private static long[] dense(Packed packed) {
+        long maxKey = 0;
+        for (long key : packed.keys) {
+            maxKey = Math.max(maxKey, key);
+        }
+        long[] coefficients = new long[(int) maxKey + 1];
+        for (int t = 0; t < packed.keys.length; t++) {
+            coefficients[(int) packed.keys[t]] = packed.coefficients[t].longValue();
+        }
+        return coefficients;
+    }
+
+    /** below this length, Karatsuba multiplies term by term */
+    private static final int KARATSUBA_CUTOFF = 32;
+
+    /**
+     * Add the product of the polynomials a and b, of the same length, to product.
+     * @param product at least 2 * a.length - 1 coefficients
+     */
+    private static void karatsuba(long[] a, long[] b, long[] product) {
+        int n = a.length;
+        if (n <= KARATSUBA_CUTOFF) {
+            for (int i = 0; i < n; i++) {
+                if (a[i] == 0) continue;
+                for (int j = 0; j < n; j++) {
+                    product[i + j] += a[i] * b[j];
+                }
+            }
+            return;
+        }
+
+        // a = a0 + a1*X^half, b = b0 + b1*X^half,
+        // a*b = a0*b0 + ((a0 + a1)*(b0 + b1) - a0*b0 - a1*b1)*X^half + a1*b1*X^(2*half)
+        int half = n / 2;
+        int high = n - half;
+        long[] a0 = Arrays.copyOf(a, high);
+        long[] b0 = Arrays.copyOf(b, high);
+        long[] a1 = Arrays.copyOfRange(a, half, n);
+        long[] b1 = Arrays.copyOfRange(b, half, n);
+        if (high > half) {
+            // a0 and b0 padded with one zero, to the length of a1 and b1
+            a0[half] = 0;
+            b0[half] = 0;
+        }
+
+        long[] low = new long[2 * high - 1];
+        long[] top = new long[2 * high - 1];
+        karatsuba(a0, b0, low);
+        karatsuba(a1, b1, top);
+        for (int i = 0; i < high; i++) {
+            a0[i] += a1[i];
+            b0[i] += b1[i];
+        }
+        long[] middle = new long[2 * high - 1];
+        karatsuba(a0, b0, middle);
+
+        for (int i = 0; i < middle.length; i++) {
+            middle[i] -= low[i] + top[i];
+        }
+        for (int i = 0; i < low.length && i < product.length; i++) {
+            product[i] += low[i];
+        }
+        for (int i = 0; i < middle.length && half + i < product.length; i++) {
+            product[half + i] += middle[i];
+        }
+        for (int i = 0; i < top.length && 2 * half + i < product.length; i++) {
+            product[2 * half + i] += top[i];
+        }
+    }
+
+    /**
+     * An open-addressing table from packed key to coefficient, where coefficients stay
+     * primitive longs until a sum overflows or a coefficient isn't a long.
+     */
+    private static final class TermTable {
+        /*
+            Rep invariant:
+                keys.length is a power of two, more than twice size;
+                a slot is empty iff its key is EMPTY; the coefficient of a full slot is
+                numbers[slot] if not null, else longs[slot]
+         */
+        private long[] keys;
+        private long[] longs;
+        private Number[] numbers;
+        private int size;
+
+        TermTable(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 4);
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            longs = new long[capacity];
+            numbers = new Number[capacity];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * @return the slot of key, made if it didn't exist, with coefficient 0
+         */
+        private int claim(long key) {
+            int slot = slot(key);
+            if (keys[slot] == EMPTY) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = slot(key);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            return slot;
+        }
+
+        void add(long key, long coefficient) {
+            int slot = claim(key);
+            if (numbers[slot] != null) {
+                numbers[slot] = numbers[slot].add(Number.of(coefficient));
+                return;
+            }
+            long previous = longs[slot];
+            long sum = previous + coefficient;
+            if (((previous ^ sum) & (coefficient ^ sum)) < 0) {
+                numbers[slot] = Number.of(previous).add(Number.of(coefficient));
+            } else {
+                longs[slot] = sum;
+            }
+        }
+
+        void add(long key, Number coefficient) {
+            int slot = claim(key);
+            if (numbers[slot] == null) {
+                numbers[slot] = Number.of(longs[slot]).add(coefficient);
+            } else {
+                numbers[slot] = numbers[slot].add(coefficient);
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldLongs = longs;
+            Number[] oldNumbers = numbers;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    longs[slot] = oldLongs[i];
+                    numbers[slot] = oldNumbers[i];
+                }
+            }
+        }
+
+        /**
+         * @return the polynomial of the nonzero terms, unpacking keys with strides
+         */
+        Polynomial toPolynomial(String[] variables, long[] strides) {
+            TreeMap<Monomial, Number> terms = new TreeMap<>();
+            int[] exponents = new int[variables.length];
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == EMPTY) {
+                    continue;
+                }
+                Number coefficient = numbers[slot] != null ? numbers[slot] : Number.of(longs[slot]);
+                if (coefficient.isZero()) {
+                    continue;
+                }
+                long key = keys[slot];
+                for (int i = 0; i < variables.length; i++) {
+                    exponents[i] = (int) (key / strides[i]);
+                    key %= strides[i];
+                }
+                terms.put(Monomial.of(variables, exponents), coefficient);
+            }
+            return Polynomial.fromTerms(terms);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bottom-up folds of large expressions on a ForkJoinPool: evaluation, differentiation
+ * and conversion to a Polynomial.
+ *
+ * Above THRESHOLD nodes, the operands of an Add or Multiply are folded as two fork/join tasks
+ * and their results combined; below it, a subtree is folded sequentially by the usual
+ * explicit-stack walk. The split decision reads the tree size cached in every Add and
+ * Multiply, so it costs nothing. Equal subtrees above the threshold are folded once, so a
+ * DAG with a lot of sharing is not expanded into the tree it represents.
+ *
+ * Every fold returns the same result as the sequential version, whatever the pool.
+ */
+public class ParallelFold {
+
+    /**
+     * Subtrees with fewer nodes than this are folded sequentially, in one task.
+     */
+    static final int THRESHOLD = 1 << 15;
+
+    private ParallelFold() {
+    }
+
+    /**
+     * A fold of an expression: how to fold a small subtree, and how to combine the
+     * results of the operands of an Add or Multiply node.
+     */
+    private interface Fold<R> {
+        R sequential(Expression subtree);
+
+        R combine(Expression node, R left, R right);
+    }
+
+    /**
+     * @return true iff folding expression is worth splitting into tasks
+     */
+    static boolean isLarge(Expression expression) {
+        return ExpressionWalker.size(expression) >= THRESHOLD;
+    }
+
+    /**
+     * Evaluate exactly, as Expression.evaluate does.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param pool where to run the tasks
+     * @return the value of expression
+     */
+    public static Number evaluate(Expression expression, ForkJoinPool pool) {
+        return fold(expression, pool, new Fold<Number>() {
+            @Override
+            public Number sequential(Expression subtree) {
+                return ExpressionWalker.evaluate(subtree);
+            }
+
+            @Override
+            public Number combine(Expression node, Number left, Number right) {
+                return node instanceof Add ? left.add(right) : left.multiply(right);
+            }
+        });
+    }
+
+    /**
+     * Differentiate with respect to a variable, as Commands.differentiate does.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param variable the variable to differentiate by
+     * @param pool where to run the tasks
+     * @return a derivative equal to Commands.differentiate(expression, variable)
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static Expression differentiate(Expression expression, String variable, ForkJoinPool pool) {
+        // one factory for every task, safe to share between threads: a small subtree shared by
+        // several sequential chunks gets one derivative object, as in the sequential version,
+        // and the interned operands copied by the product rule are looked up by reference
+        ExpressionFactory factory = new ExpressionFactory();
+        return fold(factory.intern(expression), pool, new Fold<Expression>() {
+            @Override
+            public Expression sequential(Expression subtree) {
+                return Commands.differentiateSequentially(subtree, variable, factory);
+            }
+
+            @Override
+            public Expression combine(Expression node, Expression left, Expression right) {
+                if (node instanceof Add) {
+                    return factory.add(left, right);
+                }
+                Multiply multiply = (Multiply) node;
+                return factory.add(factory.multiply(multiply.getLeft(), right),
+                        factory.multiply(multiply.getRight(), left));
+            }
+        });
+    }
+
+    /**
+     * Convert to normal form, as Polynomial.of does.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param environment maps variables to values, as in Polynomial.of
+     * @param pool where to run the tasks
+     * @return the polynomial equal to expression after substitution
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public static Polynomial polynomial(Expression expression, Map<String, Integer> environment, ForkJoinPool pool) {
+        return fold(expression, pool, new Fold<Polynomial>() {
+            @Override
+            public Polynomial sequential(Expression subtree) {
+                return Polynomial.of(subtree, environment);
+            }
+
+            @Override
+            public Polynomial combine(Expression node, Polynomial left, Polynomial right) {
+                return node instanceof Add ? left.add(right) : left.multiply(right);
+            }
+        });
+    }
+
+    private static <R> R fold(Expression expression, ForkJoinPool pool, Fold<R> fold) {
+        if (!isLarge(expression)) {
+            return fold.sequential(expression);
+        }
+        return pool.invoke(new Task<>(expression, fold, new ConcurrentHashMap<>()));
+    }
+
+    /**
+     * Folds one subtree of at least THRESHOLD nodes.
+     */
+    private static final class Task<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1;
+
+        private final Expression node;
+        private final Fold<R> fold;
+        // the task of every large subtree already reached, so equal subtrees are folded once
+        private final Map<Expression, Task<R>> tasks;
+
+        Task(Expression node, Fold<R> fold, Map<Expression, Task<R>> tasks) {
+            this.node = node;
+            this.fold = fold;
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected R compute() {
+            // a node with one small operand gains nothing from a split, so follow such nodes
+            // down to a node whose operands are both large, in a loop rather than in nested tasks,
+            // which would overflow the stack on long chains
+            Deque<Expression> spine = new ArrayDeque<>();
+            Expression bottom = node;
+            Expression left = ExpressionWalker.left(bottom);
+            Expression right = ExpressionWalker.right(bottom);
+            while (left != null && isLarge(left) != isLarge(right)) {
+                spine.push(bottom);
+                bottom = isLarge(left) ? left : right;
+                left = ExpressionWalker.left(bottom);
+                right = ExpressionWalker.right(bottom);
+            }
+
+            R result;
+            if (left != null && isLarge(left)) {
+                Task<R> leftTask = task(left);
+                Task<R> rightTask = task(right);
+                if (rightTask == leftTask) {
+                    result = fold.combine(bottom, leftTask.join(), leftTask.join());
+                } else {
+                    R rightResult = rightTask.join();
+                    result = fold.combine(bottom, leftTask.join(), rightResult);
+                }
+            } else {
+                result = fold.sequential(bottom);
+            }
+
+            Expression operand = bottom;
+            while (!spine.isEmpty()) {
+                Expression parent = spine.pop();
+                result = ExpressionWalker.left(parent) == operand
+                        ? fold.combine(parent, result, fold.sequential(ExpressionWalker.right(parent)))
+                        : fold.combine(parent, fold.sequential(ExpressionWalker.left(parent)), result);
+                operand = parent;
+            }
+            return result;
+        }
+
+        /**
+         * @return the task of a large subtree: a new forked one, or the one of an equal
+         *         subtree reached before
+         */
+        private Task<R> task(Expression subtree) {
+            Task<R> task = new Task<>(subtree, fold, tasks);
+            Task<R> known = tasks.putIfAbsent(subtree, task);
+            if (known != null) {
+                return known;
+            }
+            task.fork();
+            return task;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package expressivo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded cache from input text to parsed Expression AST,
+ * evicting the least recently used entry when full.
+ *
+ * Expressions are immutable, so the same AST can be handed out to every caller
+ * that parses the same text. Invalid inputs are never cached.
+ */
+public class ParseCache {
+    /*
+        Abstract function:
+            Represent the capacity most recently used pairs (input, Expression.parse(input))
+        Rep invariant:
+            capacity >= 0, entries.size() <= capacity,
+            every value is the AST of its key
+        Rep exposure:
+            entries is private and never returned; keys and values are immutable
+        Thread safety:
+            entries is only touched while holding the lock on entries.
+            Parsing happens outside the lock, so two threads missing on the same input
+            may both parse it; the first one stored wins and the result is the same anyway.
+     */
+    /** default capacity of the shared cache */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final ParseCache SHARED = new ParseCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<String, Expression> entries;
+    private volatile int capacity;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Make an empty cache.
+     * @param capacity maximum number of entries, nonnegative; 0 disables caching
+     */
+    public ParseCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be nonnegative: " + capacity);
+        }
+        this.capacity = capacity;
+        // access order makes iteration start at the least recently used entry
+        this.entries = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > ParseCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by Expression.parse and Commands
+     */
+    public static ParseCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Parse an expression, reusing the AST of a previous parse of the same input if it is cached.
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public Expression parse(String input) {
+        Expression cached;
+        synchronized (entries) {
+            cached = entries.get(input);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        Expression parsed = Expression.parse(input, ParserEngine.PRECEDENCE);
+        synchronized (entries) {
+            Expression raced = entries.putIfAbsent(input, parsed);
+            return raced == null ? parsed : raced;
+        }
+    }
+
+    /**
+     * Change the maximum number of entries, evicting the least recently used ones if needed.
+     * @param capacity new capacity, nonnegative; 0 disables caching
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be nonnegative: " + capacity);
+        }
+        synchronized (entries) {
+            this.capacity = capacity;
+            while (entries.size() > capacity) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * @return maximum number of entries
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return current number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of parse calls answered from the cache
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of parse calls that had to run the parser
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Remove every entry and reset the hit and miss counters.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "ParseCache[size=" + size() + ", capacity=" + capacity + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
@@ -0,0 +1,13 @@
+package expressivo;
+
+/**
+ * The parser implementations available to Expression.parse.
+ * Both accept exactly the language of parser/Expression.g4 and build equal ASTs.
+ * Expression.parse(String) uses PRECEDENCE, since the ANTLR parser recurses on nested parentheses.
+ */
+public enum ParserEngine {
+    /** the parser generated by ANTLR, which builds a full parse tree and walks it with a listener */
+    ANTLR,
+    /** the hand-written PrecedenceParser, which builds the AST directly with no intermediate tree */
+    PRECEDENCE
+}
@@ -0,0 +1,237 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable sparse multivariate polynomial with Number coefficients,
+ * in normal form: a map from Monomial to its nonzero coefficient.
+ *
+ * Two polynomials are equal iff they are algebraically equal, so converting an Expression
+ * to a Polynomial folds constants, drops *1 and +0, and collects like terms: it expands
+ * every product of sums. Products of large polynomials are computed on packed exponents,
+ * by Kronecker substitution when they are dense, see PackedMultiplication.
+ */
+public class Polynomial {
+    /*
+        Abstract function:
+            Represent the sum of coefficient * monomial over all entries of terms
+        Rep invariant:
+            no coefficient is 0
+        Rep exposure:
+            terms is unmodifiable and never shared with a mutable map; keys are immutable
+     */
+    public static final Polynomial ZERO = new Polynomial(new TreeMap<>());
+
+    private final SortedMap<Monomial, Number> terms;
+
+    private Polynomial(TreeMap<Monomial, Number> terms) {
+        this.terms = Collections.unmodifiableSortedMap(terms);
+        checkRep();
+    }
+
+    private void checkRep() {
+        for (Number coefficient : terms.values()) {
+            assert !coefficient.isZero();
+        }
+    }
+
+    /**
+     * @return the constant polynomial c
+     */
+    public static Polynomial constant(long c) {
+        return constant(Number.of(c));
+    }
+
+    /**
+     * @return the constant polynomial c
+     */
+    public static Polynomial constant(Number c) {
+        TreeMap<Monomial, Number> terms = new TreeMap<>();
+        if (!c.isZero()) {
+            terms.put(Monomial.ONE, c);
+        }
+        return new Polynomial(terms);
+    }
+
+    /**
+     * @return the polynomial made of the single variable name
+     */
+    public static Polynomial variable(String name) {
+        TreeMap<Monomial, Number> terms = new TreeMap<>();
+        terms.put(Monomial.of(name), Number.of(1));
+        return new Polynomial(terms);
+    }
+
+    /**
+     * Convert an expression to normal form, substituting the bound variables.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param environment maps variables to values; variables of expression that are
+     *                    not in environment stay symbolic
+     * @return the polynomial equal to expression after substitution
+     */
+    public static Polynomial of(Expression expression, Map<String, Integer> environment) {
+        Deque<Polynomial> stack = new ArrayDeque<>();
+        ExpressionWalker.walk(expression, node -> {
+            if (node instanceof Number) {
+                stack.push(constant((Number) node));
+            }
+            else if (node instanceof Var) {
+                Integer value = environment.get(node.toString());
+                stack.push(value != null ? constant(value) : variable(node.toString()));
+            }
+            else if (node instanceof Add) {
+                Polynomial right = stack.pop();
+                stack.push(stack.pop().add(right));
+            }
+            else if (node instanceof Multiply) {
+                Polynomial right = stack.pop();
+                stack.push(stack.pop().multiply(right));
+            }
+            else {
+                throw new IllegalArgumentException("cannot convert " + node.getClass().getSimpleName());
+            }
+        });
+        return stack.pop();
+    }
+
+    /**
+     * @return this + that, with coefficients added as by Number.add
+     */
+    public Polynomial add(Polynomial that) {
+        TreeMap<Monomial, Number> sum = new TreeMap<>(terms);
+        for (Map.Entry<Monomial, Number> term : that.terms.entrySet()) {
+            addTerm(sum, term.getKey(), term.getValue());
+        }
+        return new Polynomial(sum);
+    }
+
+    /**
+     * @return the polynomial of the given terms, none of whose coefficients is 0
+     */
+    static Polynomial fromTerms(TreeMap<Monomial, Number> terms) {
+        return new Polynomial(terms);
+    }
+
+    /**
+     * @return this * that, with coefficients multiplied as by Number.multiply
+     */
+    public Polynomial multiply(Polynomial that) {
+        // large products are computed on packed exponents, see PackedMultiplication
+        if ((long) terms.size() * that.terms.size() >= PackedMultiplication.MIN_PAIRS) {
+            Polynomial product = PackedMultiplication.multiply(this, that);
+            if (product != null) {
+                return product;
+            }
+        }
+        return multiplyTermByTerm(that);
+    }
+
+    /**
+     * @return this * that, multiplying every pair of terms as Monomial objects
+     */
+    Polynomial multiplyTermByTerm(Polynomial that) {
+        TreeMap<Monomial, Number> product = new TreeMap<>();
+        for (Map.Entry<Monomial, Number> left : terms.entrySet()) {
+            for (Map.Entry<Monomial, Number> right : that.terms.entrySet()) {
+                addTerm(product, left.getKey().multiply(right.getKey()),
+                        left.getValue().multiply(right.getValue()));
+            }
+        }
+        return new Polynomial(product);
+    }
+
+    private static void addTerm(TreeMap<Monomial, Number> terms, Monomial monomial, Number coefficient) {
+        Number previous = terms.get(monomial);
+        Number sum = previous == null ? coefficient : previous.add(coefficient);
+        if (sum.isZero()) {
+            terms.remove(monomial);
+        } else {
+            terms.put(monomial, sum);
+        }
+    }
+
+    /**
+     * Expand a power by repeated squaring.
+     * @param exponent nonnegative power
+     * @return this^exponent, with every product expanded; the constant 1 if exponent is 0
+     * @throws IllegalArgumentException if exponent is negative
+     */
+    public Polynomial pow(int exponent) {
+        if (exponent < 0) {
+            throw new IllegalArgumentException("negative exponent: " + exponent);
+        }
+        Polynomial result = constant(1);
+        Polynomial square = this;
+        for (int e = exponent; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                result = result.multiply(square);
+            }
+            if (e > 1) {
+                square = square.multiply(square);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the terms of this polynomial, highest degree first
+     */
+    public SortedMap<Monomial, Number> terms() {
+        return terms;
+    }
+
+    /**
+     * @return true iff this polynomial has no variables
+     */
+    public boolean isConstant() {
+        return terms.isEmpty() || (terms.size() == 1 && terms.firstKey().equals(Monomial.ONE));
+    }
+
+    /**
+     * Convert back to an expression: a left-associated sum of terms, highest degree first,
+     * each term written as coefficient*variable*variable..., leaving out a coefficient of 1.
+     * @return an expression equal to this polynomial; a single Number if it has no variables
+     */
+    public Expression toExpression() {
+        ExpressionFactory factory = new ExpressionFactory();
+        Expression sum = null;
+        for (Map.Entry<Monomial, Number> term : terms.entrySet()) {
+            Monomial monomial = term.getKey();
+            Number coefficient = term.getValue();
+
+            Expression product = coefficient.equals(Number.of(1)) && monomial.degree() > 0
+                    ? null : factory.number(coefficient);
+            for (int i = 0; i < monomial.variableCount(); i++) {
+                for (int e = 0; e < monomial.exponent(i); e++) {
+                    Var variable = factory.variable(monomial.variable(i));
+                    product = product == null ? variable : factory.multiply(product, variable);
+                }
+            }
+            sum = sum == null ? product : factory.add(sum, product);
+        }
+        return sum == null ? factory.number(0) : sum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return terms.equals(((Polynomial) o).terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(terms);
+    }
+
+    @Override
+    public String toString() {
+        return toExpression().toString();
+    }
+}
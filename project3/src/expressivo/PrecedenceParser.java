@@ -0,0 +1,202 @@
+package expressivo;
+
+import java.util.Arrays;
+
+/**
+ * A hand-written operator-precedence parser for the grammar of parser/Expression.g4.
+ *
+ * It reads a CharSequence once, left to right, and builds Add/Multiply/Number/Var nodes
+ * directly on an explicit operand stack, without tokens objects or a parse tree.
+ * Like the ANTLR grammar, '*' binds tighter than '+', both are left-associative,
+ * parentheses only group, and spaces and tabs between tokens are ignored.
+ * Since the stacks live on the heap, nesting depth is not limited by the thread stack.
+ */
+public class PrecedenceParser {
+    /*
+        Abstract function:
+            Represent the parse in progress of input: operands holds the ASTs of the complete
+            operands read so far, operators the operators and '(' still waiting for their right side
+        Rep invariant:
+            0 <= position <= input.length(),
+            operandCount >= 0, operatorCount >= 0
+        Rep exposure:
+            input is only read; the stacks are never returned
+     */
+    private static final char OPEN = '(';
+
+    private final CharSequence input;
+    private final ExpressionFactory factory = new ExpressionFactory();
+    private int position = 0;
+
+    private Expression[] operands = new Expression[16];
+    private int operandCount = 0;
+    private char[] operators = new char[16];
+    private int operatorCount = 0;
+
+    private PrecedenceParser(CharSequence input) {
+        this.input = input;
+    }
+
+    /**
+     * Parse an expression.
+     * @param input expression to parse, as defined in the PS3 handout
+     * @return expression AST for the input, equal to the AST built by the ANTLR parser
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(CharSequence input) {
+        return new PrecedenceParser(input).parseRoot();
+    }
+
+    private Expression parseRoot() {
+        boolean expectOperand = true;
+        while (true) {
+            skipSpaces();
+            if (position == input.length()) {
+                break;
+            }
+            char c = input.charAt(position);
+
+            if (expectOperand) {
+                if (c == OPEN) {
+                    pushOperator(OPEN);
+                    position++;
+                }
+                else if (isDigit(c)) {
+                    pushOperand(readNumber());
+                    expectOperand = false;
+                }
+                else if (isLetter(c)) {
+                    pushOperand(readVariable());
+                    expectOperand = false;
+                }
+                else {
+                    throw error("expected a number, a variable or '('");
+                }
+            }
+            else if (c == '+' || c == '*') {
+                while (operatorCount > 0 && precedence(operators[operatorCount - 1]) >= precedence(c)) {
+                    reduce();
+                }
+                pushOperator(c);
+                position++;
+                expectOperand = true;
+            }
+            else if (c == ')') {
+                while (operatorCount > 0 && operators[operatorCount - 1] != OPEN) {
+                    reduce();
+                }
+                if (operatorCount == 0) {
+                    throw error("unbalanced ')'");
+                }
+                operatorCount--;
+                position++;
+            }
+            else {
+                throw error("expected '+', '*' or ')'");
+            }
+        }
+
+        if (expectOperand) {
+            throw error("unexpected end of input");
+        }
+        while (operatorCount > 0) {
+            if (operators[operatorCount - 1] == OPEN) {
+                throw error("missing ')'");
+            }
+            reduce();
+        }
+        assert operandCount == 1;
+        return operands[0];
+    }
+
+    /**
+     * Replace the two operands on top of the operand stack by their combination
+     * with the operator on top of the operator stack.
+     */
+    private void reduce() {
+        char operator = operators[--operatorCount];
+        Expression right = operands[--operandCount];
+        Expression left = operands[--operandCount];
+        pushOperand(operator == '+' ? factory.add(left, right) : factory.multiply(left, right));
+    }
+
+    private static int precedence(char operator) {
+        switch (operator) {
+        case '*': return 2;
+        case '+': return 1;
+        default: return 0; // '(' is never reduced by an operator
+        }
+    }
+
+    private Expression readNumber() {
+        int start = position;
+        long value = 0;
+        boolean fitsLong = true;
+        while (position < input.length() && isDigit(input.charAt(position))) {
+            int digit = input.charAt(position) - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                fitsLong = false;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        // a fraction needs at least one digit after the '.', as in the grammar
+        if (position + 1 < input.length() && input.charAt(position) == '.' && isDigit(input.charAt(position + 1))) {
+            position++;
+            skipDigits();
+            return factory.number(Number.parse(input.subSequence(start, position).toString()));
+        }
+        if (position < input.length() && input.charAt(position) == '.') {
+            throw error("expected a digit after '.'");
+        }
+        // integers that fit a long, the common case, need no substring
+        return fitsLong ? factory.number(Number.of(value))
+                : factory.number(Number.parse(input.subSequence(start, position).toString()));
+    }
+
+    private void skipDigits() {
+        while (position < input.length() && isDigit(input.charAt(position))) {
+            position++;
+        }
+    }
+
+    private Expression readVariable() {
+        int start = position;
+        while (position < input.length() && isLetter(input.charAt(position))) {
+            position++;
+        }
+        return factory.variable(input.subSequence(start, position).toString());
+    }
+
+    private void skipSpaces() {
+        while (position < input.length() && (input.charAt(position) == ' ' || input.charAt(position) == '\t')) {
+            position++;
+        }
+    }
+
+    private void pushOperand(Expression operand) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = operand;
+    }
+
+    private void pushOperator(char operator) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+        }
+        operators[operatorCount++] = operator;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + " of \"" + input + "\"");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
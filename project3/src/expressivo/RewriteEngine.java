@@ -0,0 +1,172 @@
+package expressivo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites expressions with a set of RewriteRules, bottom-up, until no rule applies anywhere.
+ *
+ * The patterns are indexed in a DiscriminationTree, so finding the rules that apply to a node
+ * costs about the size of the patterns, however many rules there are; only the candidates
+ * it returns are matched for real, in the order the rules were given, and the first that
+ * matches is applied.
+ *
+ * Rewriting keeps a marker for every node it has normalized: the map from the node to its
+ * normal form, in which a normal form maps to itself. The operands of a node are normalized
+ * before the node, and when a rule replaces a node, only the new nodes of the replacement
+ * are normalized again, since the subexpressions it reuses are marked already. Every distinct
+ * node, by identity, is normalized once, so shared subexpressions cost nothing more.
+ *
+ * The rules must terminate: a set like x + y -> y + x rewrites forever.
+ */
+public class RewriteEngine {
+    /*
+        Abstract function:
+            Represent the rewriting relation of rules, applied innermost first, each node by
+            the first rule of rules that matches it
+        Rep invariant:
+            index holds the position in rules of every rule, under its pattern
+        Rep exposure:
+            rules is unmodifiable and RewriteRules are immutable; index is private and never returned
+     */
+
+    /**
+     * The identities of 0 and 1: x*1 -> x, 1*x -> x, x*0 -> 0, 0*x -> 0, x+0 -> x, 0+x -> x.
+     */
+    public static final RewriteEngine IDENTITIES = of(Arrays.asList(
+            RewriteRule.of("x*1", "x"), RewriteRule.of("1*x", "x"),
+            RewriteRule.of("x*0", "0"), RewriteRule.of("0*x", "0"),
+            RewriteRule.of("x+0", "x"), RewriteRule.of("0+x", "x")));
+
+    private final List<RewriteRule> rules;
+    private final DiscriminationTree<Integer> index = new DiscriminationTree<>();
+
+    private RewriteEngine(List<RewriteRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        for (int i = 0; i < this.rules.size(); i++) {
+            index.insert(this.rules.get(i).pattern(), i);
+        }
+    }
+
+    /**
+     * Make an engine.
+     * @param rules rules to apply, earlier ones first when several match the same node
+     * @return an engine applying rules
+     */
+    public static RewriteEngine of(List<RewriteRule> rules) {
+        return new RewriteEngine(rules);
+    }
+
+    /**
+     * @return the rules of this engine, in order
+     */
+    public List<RewriteRule> rules() {
+        return rules;
+    }
+
+    /**
+     * Rewrite an expression to normal form.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return expression rewritten by the rules of this engine, bottom-up, until none applies
+     *         to any of its nodes
+     * @throws IllegalArgumentException if expression contains any other kind of node
+     */
+    public Expression rewrite(Expression expression) {
+        ExpressionFactory factory = new ExpressionFactory();
+        // the markers: every node normalized so far, mapped to its normal form
+        Map<Expression, Expression> normalForms = new IdentityHashMap<>();
+        // frames: {node} to normalize, then {node, node with normalized operands}
+        // once its operands are done, then {node, normalized node, replacement} once replaced
+        Deque<Expression[]> frames = new ArrayDeque<>();
+        frames.push(new Expression[] { expression });
+
+        while (!frames.isEmpty()) {
+            Expression[] frame = frames.pop();
+            Expression node = frame[0];
+            if (frame.length == 3) {
+                Expression normalForm = normalForms.get(frame[2]);
+                normalForms.put(frame[1], normalForm);
+                normalForms.put(node, normalForm);
+                continue;
+            }
+            if (frame.length == 1) {
+                if (normalForms.containsKey(node)) {
+                    continue;
+                }
+                if (node instanceof Add || node instanceof Multiply) {
+                    frames.push(new Expression[] { node, null });
+                    frames.push(new Expression[] { ExpressionWalker.right(node) });
+                    frames.push(new Expression[] { ExpressionWalker.left(node) });
+                    continue;
+                }
+            }
+
+            Expression rebuilt = rebuild(node, normalForms, factory);
+            Expression normalForm = normalForms.get(rebuilt);
+            if (normalForm == null) {
+                Expression replacement = apply(rebuilt, factory);
+                if (replacement != null) {
+                    frames.push(new Expression[] { node, rebuilt, replacement });
+                    frames.push(new Expression[] { replacement });
+                    continue;
+                }
+                normalForm = rebuilt;
+                normalForms.put(rebuilt, rebuilt);
+            }
+            normalForms.put(node, normalForm);
+        }
+        return normalForms.get(expression);
+    }
+
+    /**
+     * @return node with its operands replaced by their normal forms, interned by factory
+     */
+    private static Expression rebuild(Expression node, Map<Expression, Expression> normalForms,
+                                      ExpressionFactory factory) {
+        if (node instanceof Add) {
+            return factory.add(normalForms.get(ExpressionWalker.left(node)),
+                               normalForms.get(ExpressionWalker.right(node)));
+        }
+        else if (node instanceof Multiply) {
+            return factory.multiply(normalForms.get(ExpressionWalker.left(node)),
+                                    normalForms.get(ExpressionWalker.right(node)));
+        }
+        else if (node instanceof Number || node instanceof Var) {
+            return factory.intern(node);
+        }
+        throw new IllegalArgumentException("cannot rewrite " + node.getClass().getSimpleName());
+    }
+
+    /**
+     * @return the replacement of node by the first rule matching it, null if none does
+     */
+    private Expression apply(Expression node, ExpressionFactory factory) {
+        List<Integer> candidates = new ArrayList<>();
+        index.candidates(node, candidates);
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Collections.sort(candidates);
+        Map<String, Expression> bindings = new HashMap<>();
+        for (int candidate : candidates) {
+            bindings.clear();
+            RewriteRule rule = rules.get(candidate);
+            if (rule.match(node, bindings)) {
+                return rule.instantiate(bindings, factory);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return rules.toString();
+    }
+}
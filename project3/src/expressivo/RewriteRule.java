@@ -0,0 +1,161 @@
+package expressivo;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable rewrite rule pattern -> replacement, such as x*1 -> x.
+ *
+ * Both sides are expressions. Every variable of the pattern matches any subexpression, and
+ * a variable used more than once must match equal subexpressions each time, so x + x matches
+ * y*z + y*z but not y + z; numbers match equal numbers. The replacement is instantiated with
+ * the subexpressions the variables matched.
+ */
+public class RewriteRule {
+    /*
+        Abstract function:
+            Represent the rule replacing every expression matching pattern with replacement,
+            its variables bound as in the match
+        Rep invariant:
+            pattern is not a single variable;
+            every variable of replacement is a variable of pattern
+        Rep exposure:
+            all fields are private, final and immutable
+     */
+    private final Expression pattern;
+    private final Expression replacement;
+
+    private RewriteRule(Expression pattern, Expression replacement) {
+        this.pattern = pattern;
+        this.replacement = replacement;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !(pattern instanceof Var);
+        assert variables(pattern).containsAll(variables(replacement));
+    }
+
+    /**
+     * Make a rule from its two sides.
+     * @param pattern expression to match, as defined in the PS3 handout; not a single variable,
+     *                which would match everything
+     * @param replacement expression to replace it with, using only variables of pattern
+     * @return the rule pattern -> replacement
+     * @throws IllegalArgumentException if a side is invalid, pattern is a single variable,
+     *         or replacement uses a variable that is not in pattern
+     */
+    public static RewriteRule of(String pattern, String replacement) {
+        return of(Expression.parse(pattern), Expression.parse(replacement));
+    }
+
+    /**
+     * Make a rule from its two sides.
+     * @param pattern expression made of Add, Multiply, Number and Var nodes; not a single variable
+     * @param replacement expression made of Add, Multiply, Number and Var nodes, using only
+     *                    variables of pattern
+     * @return the rule pattern -> replacement
+     * @throws IllegalArgumentException if pattern is a single variable, or replacement uses
+     *         a variable that is not in pattern
+     */
+    public static RewriteRule of(Expression pattern, Expression replacement) {
+        if (pattern instanceof Var) {
+            throw new IllegalArgumentException("pattern matches every expression: " + pattern);
+        }
+        Set<String> unbound = variables(replacement);
+        unbound.removeAll(variables(pattern));
+        if (!unbound.isEmpty()) {
+            throw new IllegalArgumentException("replacement uses variables not in the pattern: " + unbound);
+        }
+        return new RewriteRule(pattern, replacement);
+    }
+
+    private static Set<String> variables(Expression expression) {
+        return new LinkedHashSet<>(VariableLayout.of(expression).names());
+    }
+
+    /**
+     * @return the pattern of this rule
+     */
+    public Expression pattern() {
+        return pattern;
+    }
+
+    /**
+     * @return the replacement of this rule
+     */
+    public Expression replacement() {
+        return replacement;
+    }
+
+    /**
+     * Match the pattern of this rule against an expression, at its root.
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @param bindings map to fill, empty; on success it maps every variable of the pattern
+     *                 to the subexpression it matched, on failure its content is unspecified
+     * @return true iff expression matches the pattern
+     */
+    boolean match(Expression expression, Map<String, Expression> bindings) {
+        return match(pattern, expression, bindings);
+    }
+
+    // recursion is bounded by the depth of the pattern
+    private static boolean match(Expression pattern, Expression expression, Map<String, Expression> bindings) {
+        if (pattern instanceof Var) {
+            Expression bound = bindings.putIfAbsent(pattern.toString(), expression);
+            return bound == null || bound == expression || bound.equals(expression);
+        }
+        else if (pattern instanceof Number) {
+            return pattern.equals(expression);
+        }
+        else if (pattern.getClass() != expression.getClass()) {
+            return false;
+        }
+        return match(ExpressionWalker.left(pattern), ExpressionWalker.left(expression), bindings)
+                && match(ExpressionWalker.right(pattern), ExpressionWalker.right(expression), bindings);
+    }
+
+    /**
+     * Build the replacement of this rule for a match.
+     * @param bindings maps every variable of the pattern to the subexpression it matched
+     * @param factory factory to build the new nodes with
+     * @return the replacement, its variables replaced by their bindings
+     */
+    Expression instantiate(Map<String, Expression> bindings, ExpressionFactory factory) {
+        return instantiate(replacement, bindings, factory);
+    }
+
+    // recursion is bounded by the depth of the replacement
+    private static Expression instantiate(Expression replacement, Map<String, Expression> bindings,
+                                          ExpressionFactory factory) {
+        if (replacement instanceof Var) {
+            return bindings.get(replacement.toString());
+        }
+        else if (replacement instanceof Number) {
+            return factory.number((Number) replacement);
+        }
+        Expression left = instantiate(ExpressionWalker.left(replacement), bindings, factory);
+        Expression right = instantiate(ExpressionWalker.right(replacement), bindings, factory);
+        return replacement instanceof Add ? factory.add(left, right) : factory.multiply(left, right);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RewriteRule that = (RewriteRule) o;
+        return pattern.equals(that.pattern) && replacement.equals(that.replacement);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, replacement);
+    }
+
+    @Override
+    public String toString() {
+        return pattern + " -> " + replacement;
+    }
+}
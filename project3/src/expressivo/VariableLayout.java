@@ -0,0 +1,119 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable assignment of variables to slots 0..size()-1 of an environment array.
+ *
+ * Binding an expression to a layout resolves each of its variables to a slot once, so
+ * that environments can then be plain int[], long[] or double[] arrays indexed by slot,
+ * instead of maps from variable name to boxed value.
+ */
+public class VariableLayout {
+    /*
+        Abstract function:
+            Represent the layout where variable names.get(i) is stored in slot i
+        Rep invariant:
+            names contains no duplicates,
+            slots.get(names.get(i)) == i for every i, and slots has no other keys
+        Rep exposure:
+            names is unmodifiable, slots is private and never returned
+     */
+    private final List<String> names;
+    private final Map<String, Integer> slots;
+
+    private VariableLayout(List<String> names) {
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.slots = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (slots.put(names.get(i), i) != null) {
+                throw new IllegalArgumentException("duplicate variable " + names.get(i));
+            }
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert slots.size() == names.size();
+    }
+
+    /**
+     * @param names variables, the i-th one stored in slot i; no duplicates
+     * @return the layout storing names in this order
+     * @throws IllegalArgumentException if a variable appears twice
+     */
+    public static VariableLayout of(String... names) {
+        return new VariableLayout(Arrays.asList(names));
+    }
+
+    /**
+     * @param names variables, the i-th one stored in slot i; no duplicates
+     * @return the layout storing names in this order
+     * @throws IllegalArgumentException if a variable appears twice
+     */
+    public static VariableLayout of(List<String> names) {
+        return new VariableLayout(names);
+    }
+
+    /**
+     * @param expression expression made of Add, Multiply, Number and Var nodes
+     * @return the layout storing the variables of expression in order of first appearance,
+     *         read left-to-right, as CompiledExpression does
+     */
+    public static VariableLayout of(Expression expression) {
+        Set<String> names = new LinkedHashSet<>();
+        ExpressionWalker.walk(expression, node -> {
+            if (node instanceof Var) {
+                names.add(node.toString());
+            }
+        });
+        return new VariableLayout(new ArrayList<>(names));
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return the variables of this layout, the i-th one being stored in slot i
+     */
+    public List<String> names() {
+        return names;
+    }
+
+    /**
+     * @param name a variable
+     * @return the slot of name, or -1 if name has no slot in this layout
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return names.equals(((VariableLayout) o).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return names.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VariableLayout" + names;
+    }
+}
@@ -37,7 +37,7 @@ expression : expression op='*' expression
              | '(' expression ')';
 
 
-NUMBER : [0-9]+;
+NUMBER : [0-9]+ ('.' [0-9]+)?;
 VARIABLE: [a-zA-Z]+;
 
 /* CONST */
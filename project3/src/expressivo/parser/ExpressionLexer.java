@@ -107,19 +107,22 @@ public class ExpressionLexer extends Lexer {
   public ATN getATN() { return _ATN; }
 
   public static final String _serializedATN =
-    "\3\u0430\ud6d1\u8206\uad2d\u4417\uaef1\u8d80\uaadd\2\t*\b\1\4\2\t\2"+
-      "\4\3\t\3\4\4\t\4\4\5\t\5\4\6\t\6\4\7\t\7\4\b\t\b\3\2\3\2\3\3\3\3\3"+
-      "\4\6\4\27\n\4\r\4\16\4\30\3\5\6\5\34\n\5\r\5\16\5\35\3\6\3\6\3\7\3"+
-      "\7\3\b\6\b%\n\b\r\b\16\b&\3\b\3\b\2\2\t\3\3\5\4\7\5\t\6\13\7\r\b\17"+
-      "\t\3\2\5\3\2\62;\4\2C\\c|\4\2\13\13\"\",\2\3\3\2\2\2\2\5\3\2\2\2\2"+
-      "\7\3\2\2\2\2\t\3\2\2\2\2\13\3\2\2\2\2\r\3\2\2\2\2\17\3\2\2\2\3\21"+
-      "\3\2\2\2\5\23\3\2\2\2\7\26\3\2\2\2\t\33\3\2\2\2\13\37\3\2\2\2\r!\3"+
-      "\2\2\2\17$\3\2\2\2\21\22\7*\2\2\22\4\3\2\2\2\23\24\7+\2\2\24\6\3\2"+
-      "\2\2\25\27\t\2\2\2\26\25\3\2\2\2\27\30\3\2\2\2\30\26\3\2\2\2\30\31"+
-      "\3\2\2\2\31\b\3\2\2\2\32\34\t\3\2\2\33\32\3\2\2\2\34\35\3\2\2\2\35"+
-      "\33\3\2\2\2\35\36\3\2\2\2\36\n\3\2\2\2\37 \7,\2\2 \f\3\2\2\2!\"\7"+
-      "-\2\2\"\16\3\2\2\2#%\t\4\2\2$#\3\2\2\2%&\3\2\2\2&$\3\2\2\2&\'\3\2"+
-      "\2\2\'(\3\2\2\2()\b\b\2\2)\20\3\2\2\2\6\2\30\35&\3\b\2\2";
+    "\3\u0430\ud6d1\u8206\uad2d\u4417\uaef1\u8d80\uaadd\2\t\62\b\1\4\2\t"+
+      "\2\4\3\t\3\4\4\t\4\4\5\t\5\4\6\t\6\4\7\t\7\4\b\t\b\3\2\3\2\3\3\3\3"+
+      "\3\4\6\4\27\n\4\r\4\16\4\30\3\4\3\4\6\4\35\n\4\r\4\16\4\36\5\4!\n"+
+      "\4\3\5\6\5$\n\5\r\5\16\5%\3\6\3\6\3\7\3\7\3\b\6\b-\n\b\r\b\16\b.\3"+
+      "\b\3\b\2\2\t\3\3\5\4\7\5\t\6\13\7\r\b\17\t\3\2\5\3\2\62;\4\2C\\c|"+
+      "\4\2\13\13\"\"\66\2\3\3\2\2\2\2\5\3\2\2\2\2\7\3\2\2\2\2\t\3\2\2\2"+
+      "\2\13\3\2\2\2\2\r\3\2\2\2\2\17\3\2\2\2\3\21\3\2\2\2\5\23\3\2\2\2\7"+
+      "\26\3\2\2\2\t#\3\2\2\2\13\'\3\2\2\2\r)\3\2\2\2\17,\3\2\2\2\21\22\7"+
+      "*\2\2\22\4\3\2\2\2\23\24\7+\2\2\24\6\3\2\2\2\25\27\t\2\2\2\26\25\3"+
+      "\2\2\2\27\30\3\2\2\2\30\26\3\2\2\2\30\31\3\2\2\2\31 \3\2\2\2\32\34"+
+      "\7\60\2\2\33\35\t\2\2\2\34\33\3\2\2\2\35\36\3\2\2\2\36\34\3\2\2\2"+
+      "\36\37\3\2\2\2\37!\3\2\2\2 \32\3\2\2\2 !\3\2\2\2!\b\3\2\2\2\"$\t\3"+
+      "\2\2#\"\3\2\2\2$%\3\2\2\2%#\3\2\2\2%&\3\2\2\2&\n\3\2\2\2\'(\7,\2\2"+
+      "(\f\3\2\2\2)*\7-\2\2*\16\3\2\2\2+-\t\4\2\2,+\3\2\2\2-.\3\2\2\2.,\3"+
+      "\2\2\2./\3\2\2\2/\60\3\2\2\2\60\61\b\b\2\2\61\20\3\2\2\2\b\2\30\36"+
+      " %.\3\b\2\2";
   public static final ATN _ATN =
     new ATNDeserializer().deserialize(_serializedATN.toCharArray());
   static {
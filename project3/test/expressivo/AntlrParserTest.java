@@ -0,0 +1,99 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for AntlrParser, against parsers built by Expression.makeParser.
+ */
+public class AntlrParserTest {
+
+    // Testing strategy
+    //   the reused parser must give the same tree as a fresh LL parser, for any sequence of inputs
+    //   partition on input: valid, invalid (lexical error, syntax error, empty)
+    //   partition on order: first input of the thread, after a valid input, after an invalid input
+    //   partition on stage: valid inputs finish in SLL, syntax errors fall back to LL,
+    //     lexical errors fail in SLL; every error is reported to standard error once
+
+    private static final List<String> VALID = Arrays.asList(
+            "x", "3*x*x + 2*(x + y)*z + 7", "((1.5))", "a*(b + c*(d + e))*f");
+
+    private static String freshTree(String input) {
+        return Expression.makeParser(new org.antlr.v4.runtime.ANTLRInputStream(input)).root().toStringTree();
+    }
+
+    @Test
+    public void testMatchesFreshParser() {
+        for (int round = 0; round < 2; round++) {
+            for (String input : VALID) {
+                long fallbacks = AntlrParser.fallbacks();
+                assertEquals(input, freshTree(input), AntlrParser.parse(input).toStringTree());
+                assertEquals(input, fallbacks, AntlrParser.fallbacks());
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidInputsFallBackAndFail() {
+        for (String input : Arrays.asList("x +", "", "(x", "x y")) {
+            long fallbacks = AntlrParser.fallbacks();
+            try {
+                AntlrParser.parse(input);
+                fail("accepted " + input);
+            } catch (ParseCancellationException expected) {
+                // expected
+            }
+            assertTrue(input, AntlrParser.fallbacks() > fallbacks);
+            // the parser is still usable after a failure
+            assertEquals(freshTree("x*y"), AntlrParser.parse("x*y").toStringTree());
+        }
+    }
+
+    /**
+     * Parse an invalid input.
+     * @return what the parse printed to standard error
+     */
+    private static String parseInvalid(String input) {
+        PrintStream err = System.err;
+        ByteArrayOutputStream reports = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(reports, true));
+        try {
+            AntlrParser.parse(input);
+            fail("accepted " + input);
+        } catch (ParseCancellationException expected) {
+            // expected
+        } finally {
+            System.setErr(err);
+        }
+        return reports.toString();
+    }
+
+    @Test
+    public void testLexicalErrorReportedOnce() {
+        for (String input : Arrays.asList("2 # 3", "x + $")) {
+            long fallbacks = AntlrParser.fallbacks();
+            String report = parseInvalid(input);
+            assertTrue(input + ": " + report, report.contains("token recognition error"));
+            assertEquals(input + ": " + report, report.indexOf("token recognition error"),
+                    report.lastIndexOf("token recognition error"));
+            assertEquals(input, fallbacks, AntlrParser.fallbacks());
+            assertEquals(freshTree("x*y"), AntlrParser.parse("x*y").toStringTree());
+        }
+    }
+
+    @Test
+    public void testSyntaxErrorReportedOnce() {
+        for (String input : Arrays.asList("x +", "(x", "x y")) {
+            String report = parseInvalid(input);
+            assertTrue(input + ": " + report, report.startsWith("line 1:"));
+            assertEquals(input + ": " + report, report.indexOf("line 1:"), report.lastIndexOf("line 1:"));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests for the batch mode of the console.
+ */
+public class BatchRunnerTest {
+
+    // Testing strategy
+    //   partition on input: single job, many jobs, command before any expression,
+    //                       invalid lines, blank lines,
+    //                       commands after an invalid expression line,
+    //                       jobs of invalid expression lines only, long runs of commands
+    //   partition on window, in lines: 1, shorter than a job, larger than the input
+    //   outputs must match the console session line by line, in input order
+
+    private static String run(String input, int parallelism, int window) throws IOException {
+        StringWriter out = new StringWriter();
+        try (BatchRunner runner = new BatchRunner(parallelism, window)) {
+            runner.run(new BufferedReader(new StringReader(input)), out);
+        }
+        return out.toString();
+    }
+
+    private static String runSequentially(String input) {
+        Main.Session session = new Main.Session();
+        StringBuilder out = new StringBuilder();
+        for (String line : input.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                out.append(session.execute(line)).append(System.lineSeparator());
+            }
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testManyJobsKeepInputOrder() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append("x*x*").append(i).append(" + y\n");
+            input.append("!d/dx\n");
+            input.append("!simplify x=").append(i).append("\n");
+        }
+
+        assertEquals(runSequentially(input.toString()), run(input.toString(), 4, 3));
+    }
+
+    @Test
+    public void testErrorsAndBlankLines() throws IOException {
+        String input = "!d/dx\n\nx + \nx*y\n!d/d\n!simplify y=2\n";
+
+        String output = run(input, 2, 16);
+
+        assertEquals(runSequentially(input), output);
+        assertTrue(output.startsWith("must enter an expression before using this command"));
+    }
+
+    @Test
+    public void testCommandsAfterInvalidExpression() throws IOException {
+        // the invalid line keeps the derivative of x*x as the current expression, as in the console
+        String input = "x*x\n!d/dx\nx +\n!d/dx\ny\nx + + y\n!simplify y=3\n";
+
+        String output = run(input, 2, 1);
+
+        assertEquals(runSequentially(input), output);
+        String[] lines = output.split(System.lineSeparator());
+        assertEquals("((x*0 + 1*1) + (x*0 + 1*1))", lines[3]);
+        assertEquals("3", lines[6]);
+    }
+
+    @Test
+    public void testInvalidLinesOnlyAndLongRuns() throws IOException {
+        // jobs "x +" and "y + !d/dx" continue from x*x*x; the run of commands is cut by the window
+        StringBuilder input = new StringBuilder("x*x*x\nx +\ny +\n!d/dx\n");
+        for (int i = 0; i < 12; i++) {
+            input.append(i % 3 == 0 ? "!d/dx\n" : "!simplify x=2\n");
+        }
+
+        for (int window : new int[] {1, 3, 1000}) {
+            assertEquals(runSequentially(input.toString()), run(input.toString(), 4, window));
+        }
+    }
+}
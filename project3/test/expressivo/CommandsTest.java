@@ -7,6 +7,9 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Tests for the static methods of Commands.
  */
@@ -28,4 +31,224 @@ public class CommandsTest {
         String expr = Commands.differentiate(input, "x");
         //assertEquals(expr.toString(), "x + (x*1)");
     }
+
+    @Test
+    public void testDifferentiateProductRule(){
+        String derivative = Commands.differentiate("x * y", "x");
+
+        assertEquals(Expression.parse("x*0 + y*1"), Expression.parse(derivative));
+    }
+
+    @Test
+    public void testSimplifyAllBound(){
+        Map<String, Integer> environment = new HashMap<>();
+        environment.put("x", 3);
+        environment.put("y", 4);
+
+        assertEquals("19", Commands.simplify("x*x + 2*y + 2", environment));
+    }
+
+    @Test
+    public void testParseCacheHitsOnRepeatedInput(){
+        ParseCache cache = new ParseCache(2);
+        Expression first = cache.parse("x + 1");
+        Expression second = cache.parse("x + 1");
+
+        assertSame(first, second);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testParseCacheEvictsLeastRecentlyUsed(){
+        ParseCache cache = new ParseCache(2);
+        cache.parse("a");
+        cache.parse("b");
+        cache.parse("a");
+        cache.parse("c"); // evicts b
+        cache.parse("a");
+        cache.parse("b");
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void testDifferentiateSharedDeepProduct(){
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 40; i++) {
+            input.append("*x");
+        }
+
+        ExpressionDag derivative = Commands.differentiateShared(input.toString(), "x");
+
+        // the expanded tree is quadratic in the number of factors, the DAG stays linear
+        assertTrue(derivative.nodeCount() < 200);
+        assertTrue(derivative.treeSize() > 1000);
+    }
+
+    @Test
+    public void testDifferentiateSharedMatchesDifferentiate(){
+        String input = "(x + y) * (x + y) * x";
+        ExpressionDag derivative = Commands.differentiateShared(input, "x");
+
+        assertEquals(Commands.differentiate(input, "x"), derivative.root().toString());
+    }
+
+    @Test
+    public void testSimplifyLeavesUnboundVariables(){
+        Map<String, Integer> environment = new HashMap<>();
+        environment.put("x", 2);
+
+        assertEquals(Expression.parse("3*y + 4"), Expression.parse(Commands.simplify("x*y + y + 4", environment)));
+    }
+
+    @Test
+    public void testSimplifyCollectsLikeTerms(){
+        String derivative = Commands.differentiate("x*x*x + y", "x");
+
+        assertEquals(Expression.parse("3*x*x"),
+                Expression.parse(Commands.simplify(derivative, new HashMap<String, Integer>())));
+    }
+
+    @Test
+    public void testSimplifyToZero(){
+        assertEquals("0", Commands.simplify("0*x + 0", new HashMap<String, Integer>()));
+    }
+
+    @Test
+    public void testSimplifyLargeCoefficients(){
+        Map<String, Integer> environment = new HashMap<>();
+        environment.put("x", 65536);
+
+        assertEquals("18446744073709551616*y", Commands.simplify("x*x*x*x*y", environment));
+    }
+
+    @Test
+    public void testSimplifyDecimals(){
+        assertEquals("(1.5*x + 3)", Commands.simplify("x + 0.5*x + 1.5*2", new HashMap<String, Integer>()));
+    }
+
+    @Test
+    public void testDifferentiateAstMatchesString(){
+        String input = "x*x*y + (x + 2)*x";
+        Expression derivative = Commands.differentiate(Expression.parse(input), "x");
+
+        assertEquals(Commands.differentiate(input, "x"), derivative.toString());
+        assertEquals(Commands.differentiate(derivative.toString(), "x"),
+                Commands.differentiate(derivative, "x").toString());
+    }
+
+    @Test
+    public void testSimplifyAstMatchesString(){
+        Map<String, Integer> environment = new HashMap<>();
+        environment.put("y", 3);
+        String input = "x*x*y + (x + 2)*x";
+
+        assertEquals(Commands.simplify(input, environment),
+                Commands.simplify(Expression.parse(input), environment).toString());
+    }
+
+    @Test
+    public void testSessionChainsDerivatives(){
+        Main.Session session = new Main.Session();
+        session.execute("x*x*x");
+        String first = session.execute("!d/dx");
+        String second = session.execute("!d/dx");
+
+        assertEquals(Commands.differentiate("x*x*x", "x"), first);
+        assertEquals(Commands.differentiate(first, "x"), second);
+        assertEquals("6*x", session.execute("!simplify"));
+    }
+
+    @Test
+    public void testCommonSubexpressionsBoundOnce(){
+        ExpressionDag dag = ExpressionDag.of(Expression.parse("(x + y)*(x + y) + (x + y)*2"));
+
+        // x, y, 2, x + y, its square, its double, the sum
+        assertEquals(7, dag.nodeCount());
+        assertEquals("let $0 = (x + y)\nin ($0*$0 + $0*2)", dag.toLetString());
+    }
+
+    @Test
+    public void testDagEvaluatesSharedNodesOnce(){
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 60; i++) {
+            input.append("*x");
+        }
+        ExpressionDag derivative = Commands.differentiateShared(input.toString(), "x");
+        VariableLayout layout = VariableLayout.of("x");
+
+        // the expanded tree has thousands of nodes, but the DAG only 4 per factor
+        assertTrue(derivative.treeSize() > 1000);
+        assertEquals(61 * Math.pow(1.01, 60), derivative.evaluate(layout, new double[] {1.01}), 1e-9);
+        assertEquals(derivative.root().evaluate(), derivative.evaluate());
+        assertEquals(0, derivative.value());
+    }
+
+    @Test
+    public void testGradientMatchesDifferentiate(){
+        String input = "x*x*y + 3*(x + z)*y + 2";
+        Map<String, String> gradient = Commands.gradient(input);
+        Map<String, Integer> noEnvironment = new HashMap<>();
+
+        assertEquals(java.util.Arrays.asList("x", "y", "z"), new java.util.ArrayList<>(gradient.keySet()));
+        for (String variable : gradient.keySet()) {
+            assertEquals(variable, Commands.simplify(Commands.differentiate(input, variable), noEnvironment),
+                    Commands.simplify(gradient.get(variable), noEnvironment));
+        }
+    }
+
+    @Test
+    public void testGradientAtPoint(){
+        Expression expression = Expression.parse("x*x*y + 3*(x + z)*y + 2");
+        VariableLayout layout = VariableLayout.of("y", "x", "w", "z");
+
+        double[] gradient = Commands.gradient(expression, layout, new double[] {2, 5, 7, 11});
+        assertArrayEquals(new double[] {5*5 + 3*(5 + 11), 2*5*2 + 3*2, 0, 3*2}, gradient, 1e-9);
+    }
+
+    @Test
+    public void testGradientOfManyVariables(){
+        // aa*ab + ab*ac + ...: every partial is the sum of the two neighbours
+        String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+        }
+        StringBuilder input = new StringBuilder(names[0] + "*" + names[1]);
+        for (int i = 1; i + 1 < names.length; i++) {
+            input.append(" + ").append(names[i]).append('*').append(names[i + 1]);
+        }
+        Map<String, Expression> gradient = Commands.gradient(Expression.parse(input.toString()));
+
+        assertEquals(names.length, gradient.size());
+        assertEquals(Expression.parse(names[1]), gradient.get(names[0]));
+        assertEquals(Expression.parse(names[101] + " + " + names[99]), gradient.get(names[100]));
+    }
+
+    @Test
+    public void testGradientOfSharedDag(){
+        // (y + x) doubled 200 times: 2^200 leaves as a tree, 201 distinct sums
+        ExpressionFactory factory = new ExpressionFactory();
+        Expression shared = factory.add(new Var("y", 0), new Var("x", 0));
+        for (int i = 0; i < 200; i++) {
+            shared = factory.add(shared, shared);
+        }
+        Map<String, Expression> gradient = Commands.gradient(factory.multiply(new Var("z", 0), shared));
+
+        assertEquals(java.util.Arrays.asList("z", "y", "x"), new java.util.ArrayList<>(gradient.keySet()));
+    }
+
+    @Test
+    public void testDifferentiateDeepChain(){
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 100_000; i++) {
+            input.append(i % 2 == 0 ? " + x" : "*y");
+        }
+
+        ExpressionDag derivative = Commands.differentiateShared(input.toString(), "x");
+
+        assertTrue(derivative.nodeCount() > 50_000);
+    }
 }
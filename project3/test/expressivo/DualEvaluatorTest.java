@@ -0,0 +1,78 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for DualEvaluator, against the derivative built by Commands.differentiate.
+ */
+public class DualEvaluatorTest {
+
+    // Testing strategy
+    //   value must agree with the expression, derivative with Commands.differentiate,
+    //   both evaluated at the same point
+    //   partition on root: leaf variable, leaf number, Add, Multiply
+    //   partition on variable: in the expression, not in it
+    //   partition on sharing: tree, repeated subexpressions
+    //   partition on points: one, many with evaluate(double[][], ...)
+    //   unbound variable: throws
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "x", "y", "42", "x + 1", "2*x*y", "(x + y)*(x + y)", "x*(1 + 2) + 3*y*(x + 2)",
+            "0.5*x*x + 1.25");
+    private static final VariableLayout LAYOUT = VariableLayout.of("x", "y");
+    private static final double[][] POINTS = {{0, 0}, {1, 2}, {-3, 0.5}, {2.5, -7}};
+
+    @Test
+    public void testMatchesDifferentiate() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            for (String variable : Arrays.asList("x", "y", "z")) {
+                DualEvaluator evaluator = DualEvaluator.of(expression, LAYOUT, variable);
+                BoundExpression derivative = Commands.differentiate(expression, variable).bind(LAYOUT);
+                for (double[] point : POINTS) {
+                    DualEvaluator.Dual dual = evaluator.evaluate(point);
+                    assertEquals(input, expression.bind(LAYOUT).evaluate(point), dual.value(), 1e-9);
+                    assertEquals(input + " d/d" + variable, derivative.evaluate(point), dual.derivative(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBatchMatchesSinglePoints() {
+        for (String input : INPUTS) {
+            DualEvaluator evaluator = DualEvaluator.of(Expression.parse(input), LAYOUT, "x");
+            double[] values = new double[POINTS.length];
+            double[] derivatives = new double[POINTS.length];
+            evaluator.evaluate(POINTS, values, derivatives);
+            for (int p = 0; p < POINTS.length; p++) {
+                DualEvaluator.Dual dual = evaluator.evaluate(POINTS[p]);
+                assertEquals(input, dual.value(), values[p], 0);
+                assertEquals(input, dual.derivative(), derivatives[p], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedPower() {
+        // x^64 by repeated squaring: 6 distinct nodes, derivative 64*x^63
+        String input = "x";
+        for (int i = 0; i < 6; i++) {
+            input = "(" + input + ")*(" + input + ")";
+        }
+        DualEvaluator.Dual dual = DualEvaluator.of(Expression.parse(input), VariableLayout.of("x"), "x")
+                .evaluate(new double[] {1.5});
+        assertEquals(Math.pow(1.5, 64), dual.value(), 1e-6);
+        assertEquals(64 * Math.pow(1.5, 63), dual.derivative(), 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboundVariable() {
+        DualEvaluator.of(Expression.parse("x + z"), LAYOUT, "x");
+    }
+}
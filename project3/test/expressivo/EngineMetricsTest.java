@@ -0,0 +1,100 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import javax.management.MBeanServer;
+
+/**
+ * Tests for EngineMetrics, OperationMetrics and LatencyHistogram.
+ */
+public class EngineMetricsTest {
+
+    // Testing strategy
+    //   LatencyHistogram: bucket lower bounds below and above SUB_BUCKETS, percentiles, empty
+    //   OperationMetrics: sample interval 1, 0, default; success, failure
+    //   EngineMetrics: parse, differentiate, simplify are recorded; MBeans readable through
+    //   the platform MBean server; dump has one line per operation
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long duration : new long[] {0, 1, 3, 4, 7, 8, 12, 1000, 123_456_789, Long.MAX_VALUE}) {
+            long lower = LatencyHistogram.lowerBound(LatencyHistogram.bucket(duration));
+            assertTrue(duration + " " + lower, lower <= duration && duration - lower <= duration / 4);
+            assertEquals(LatencyHistogram.bucket(duration), LatencyHistogram.bucket(lower));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(50_500, histogram.mean(), 1e-9);
+        assertEquals(100_000, histogram.max());
+        assertEquals(49_152, histogram.percentile(0.5));
+        assertEquals(98_304, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void testOperationMetrics() {
+        OperationMetrics metrics = new OperationMetrics("test");
+        metrics.setSampleInterval(1);
+        metrics.succeeded(metrics.start(), 10, 4, 12);
+        metrics.failed(metrics.start(), 6);
+        metrics.setSampleInterval(0);
+        metrics.succeeded(metrics.start(), 1000, 1000, 1000);
+
+        assertEquals(3, metrics.getCount());
+        assertEquals(1, metrics.getFailures());
+        assertEquals(2, metrics.getSampled());
+        assertEquals(8, metrics.getMeanInputLength(), 1e-9);
+        assertEquals(3, metrics.getGrowthRatio(), 1e-9);
+        metrics.reset();
+        assertEquals(0, metrics.getCount());
+    }
+
+    @Test
+    public void testCommandsAreRecorded() {
+        long parses = EngineMetrics.PARSE.getCount();
+        long parseFailures = EngineMetrics.PARSE.getFailures();
+        long derivatives = EngineMetrics.DIFFERENTIATE.getCount();
+        long simplifications = EngineMetrics.SIMPLIFY.getCount();
+
+        EngineMetrics.setSampleInterval(1);
+        try {
+            Commands.differentiate("x*x*y", "x");
+            Commands.simplify("x*x*y", Collections.singletonMap("y", 2));
+            Expression.parse("x +");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            EngineMetrics.setSampleInterval(OperationMetrics.DEFAULT_SAMPLE_INTERVAL);
+        }
+
+        assertTrue(EngineMetrics.PARSE.getCount() >= parses + 3);
+        assertTrue(EngineMetrics.PARSE.getFailures() >= parseFailures + 1);
+        assertTrue(EngineMetrics.DIFFERENTIATE.getCount() >= derivatives + 1);
+        assertTrue(EngineMetrics.SIMPLIFY.getCount() >= simplifications + 1);
+        assertTrue(EngineMetrics.DIFFERENTIATE.getGrowthRatio() > 0);
+    }
+
+    @Test
+    public void testMBeans() throws Exception {
+        EngineMetrics.registerMBeans();
+        EngineMetrics.registerMBeans();
+        Expression.parse("x + 1");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Object count = server.getAttribute(EngineMetrics.objectName(EngineMetrics.PARSE), "Count");
+        assertTrue((Long) count >= 1);
+        assertEquals(3, EngineMetrics.dump().split("\n").length);
+    }
+}
@@ -0,0 +1,121 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the binary format of ExpressionEncoder, ExpressionDecoder and MappedExpressionReader.
+ */
+public class ExpressionEncoderTest {
+
+    // Testing strategy
+    //   every expression must decode to an equal expression
+    //   partition on numbers: small long, large long, double, BigInteger, BigDecimal
+    //   partition on sharing: tree without repeats, DAG with shared subtrees (back-references)
+    //   partition on stream: one record, many records sharing variables
+    //   partition on reader: ExpressionDecoder, MappedExpressionReader with records across chunks
+    //   partition on depth: shallow, 100k nested operators
+    //   invalid streams: bad header, truncated record
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "x", "0", "42 + x*y", "9223372036854775807*x", "0.1 + 2.5*x",
+            "123456789012345678901234567890*y", "1" + new String(new char[400]).replace('\0', '0') + ".5",
+            "(x + y)*(x + y) + Foo*x");
+
+    @Test
+    public void testRoundTrip() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            assertEquals(input, expression, ExpressionDecoder.decode(ExpressionEncoder.encode(expression)));
+        }
+    }
+
+    @Test
+    public void testBackReferencesKeepDagsSmall() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 100; i++) {
+            input.append("*x");
+        }
+        Expression derivative = Commands.differentiateShared(input.toString(), "x").root();
+
+        byte[] bytes = ExpressionEncoder.encode(derivative);
+        // the tree has quadratically many nodes, the encoding stays linear in the DAG
+        assertTrue(bytes.length < 2000);
+        assertTrue(derivative.toString().length() > 10_000);
+        assertEquals(derivative, ExpressionDecoder.decode(bytes));
+    }
+
+    @Test
+    public void testStreamOfRecords() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes);
+
+        try (ExpressionDecoder decoder = new ExpressionDecoder(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (String input : INPUTS) {
+                assertEquals(Expression.parse(input), decoder.read());
+            }
+            assertNull(decoder.read());
+        }
+    }
+
+    @Test
+    public void testMappedReaderAcrossChunks() throws IOException {
+        Path file = Files.createTempFile("expressions", ".bin");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                write(out);
+            }
+            // chunks of 7 bytes make most records and strings span a chunk boundary
+            try (MappedExpressionReader reader = new MappedExpressionReader(file, 7)) {
+                assertEquals(Files.size(file), reader.size());
+                for (String input : INPUTS) {
+                    assertEquals(Expression.parse(input), reader.read());
+                }
+                assertNull(reader.read());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDeepExpressionDoesNotOverflow() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            input.append(i % 2 == 0 ? "x + " : "y*");
+        }
+        input.append("z");
+        Expression expression = Expression.parse(input.toString());
+
+        assertEquals(expression, ExpressionDecoder.decode(ExpressionEncoder.encode(expression)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadHeader() {
+        ExpressionDecoder.decode("x + y".getBytes());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTruncatedRecord() {
+        byte[] bytes = ExpressionEncoder.encode(Expression.parse("x + y*z"));
+        ExpressionDecoder.decode(Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    private static void write(OutputStream out) throws IOException {
+        try (ExpressionEncoder encoder = new ExpressionEncoder(out)) {
+            for (String input : INPUTS) {
+                encoder.write(Expression.parse(input));
+            }
+        }
+    }
+}
@@ -7,6 +7,11 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Tests for the Expression abstract data type.
  */
@@ -29,4 +34,222 @@ public class ExpressionTest {
 
     }
 
+    @Test
+    public void testFactoryInternsEqualSubtrees(){
+        ExpressionFactory factory = new ExpressionFactory();
+        Expression first = factory.add(factory.variable("x"), factory.number(1));
+        Expression second = factory.add(new Var("x", 0), new Number(1));
+
+        assertSame(first, second);
+        assertSame(first, factory.intern(new Add(new Var("x", 0), new Number(1))));
+        assertEquals(3, factory.size());
+    }
+
+    @Test
+    public void testFactorySharesOperandsOfDifferentParents(){
+        ExpressionFactory factory = new ExpressionFactory();
+        Add sum = factory.add(factory.variable("x"), factory.variable("y"));
+        Multiply product = factory.multiply(new Add(new Var("x", 0), new Var("y", 0)), sum);
+
+        assertSame(sum, product.getLeft());
+        assertSame(sum, product.getRight());
+        assertEquals(new Multiply(new Add(new Var("x", 0), new Var("y", 0)), sum), product);
+    }
+
+    @Test
+    public void testHashCodeConsistentWithEquals(){
+        Expression first = new Multiply(new Add(new Var("x", 0), new Number(2)), new Var("y", 0));
+        Expression second = Expression.parse("(x + 2) * y");
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void testCompileEvaluatesWithSlots(){
+        CompiledExpression compiled = Expression.parse("x*x + 3*y + 2*x + 1").compile();
+
+        assertEquals(java.util.Arrays.asList("x", "y"), compiled.variables());
+        assertEquals(4*4 + 3*5 + 2*4 + 1, compiled.evaluate(new double[] {4, 5}), 0);
+    }
+
+    @Test
+    public void testCompileDeepChain(){
+        // ((x + 1)*y + 1)*y ..., 10^4 levels, far deeper than a handle chain can be invoked
+        Expression chain = new Var("x", 0);
+        double expected = 3;
+        for (int i = 0; i < 10_000; i++) {
+            chain = i % 2 == 0 ? new Add(chain, new Number(1)) : new Multiply(chain, new Var("y", 0));
+            expected = i % 2 == 0 ? expected + 1 : expected * 0.5;
+        }
+        CompiledExpression compiled = chain.compile();
+
+        assertEquals(java.util.Arrays.asList("x", "y"), compiled.variables());
+        assertEquals(expected, compiled.evaluate(new double[] {3, 0.5}), 1e-12);
+        // just below the limit, the handle chain itself is invoked
+        Expression shallow = new Var("x", 0);
+        for (int i = 1; i < CompiledExpression.MAX_HEIGHT; i++) {
+            shallow = new Add(shallow, new Number(1));
+        }
+        assertEquals(CompiledExpression.MAX_HEIGHT + 1, shallow.compile().evaluate(new double[] {2}), 0);
+    }
+
+    @Test
+    public void testCompileSharedDag(){
+        // y*x doubled 20 times: one handle per distinct node, 2^20 leaves as a tree
+        Expression shared = new Multiply(new Var("y", 0), new Var("x", 0));
+        for (int i = 0; i < 20; i++) {
+            shared = new Add(shared, shared);
+        }
+        CompiledExpression compiled = shared.compile();
+
+        assertEquals(java.util.Arrays.asList("y", "x"), compiled.variables());
+        assertEquals((1 << 20) * 6.0, compiled.evaluate(new double[] {2, 3}), 0);
+    }
+
+    @Test
+    public void testCompileConstantMatchesValue(){
+        Expression expression = Expression.parse("2*(3 + 4)*5");
+
+        assertEquals(expression.value(), expression.compile().evaluate(new double[0]), 0);
+    }
+
+    @Test
+    public void testNumberEqualsAcrossNotations(){
+        assertEquals(new Number(1), Number.parse("1.00"));
+        assertEquals(Number.parse("2.5"), Number.parse("2.50"));
+        assertEquals(new Number(1).hashCode(), Number.parse("1.00").hashCode());
+        assertEquals("1", Number.parse("1.00").toString());
+        assertEquals("0.1", Number.parse("0.1").toString());
+    }
+
+    @Test
+    public void testValueOverflowPromotes(){
+        Expression expression = Expression.parse("9223372036854775807 + 1");
+
+        assertEquals(Number.parse("9223372036854775808"), expression.evaluate());
+        assertEquals("85070591730234615847396907784232501249",
+                Expression.parse("9223372036854775807*9223372036854775807").evaluate().toString());
+    }
+
+    @Test
+    public void testSumsPastLongStayExact(){
+        // 2^63 is exactly a double, but the next sum must not be rounded to one
+        Expression expression = Expression.parse("9223372036854775807 + 1 + 1");
+        Number expected = Number.parse("9223372036854775809");
+
+        assertEquals(expected, expression.evaluate());
+        assertEquals(expected, FlatExpression.of(expression).evaluate());
+        assertEquals(expected, expression.bind(VariableLayout.of()).evaluate(new long[0]));
+        assertEquals("9223372036854775809", Commands.simplify("9223372036854775807 + 1 + 1", new HashMap<>()));
+        // a double beyond long comes only from decimals, and prints back as one
+        Number rounded = Expression.parse("18446744073709551616.5*1").evaluate();
+        assertEquals("18446744073709551616.0", rounded.toString());
+        assertEquals(rounded, Number.parse(rounded.toString()));
+    }
+
+    @Test(expected=ArithmeticException.class)
+    public void testIntValueOverflowThrows(){
+        Expression.parse("65536*65536").value();
+    }
+
+    @Test
+    public void testEvaluateDecimals(){
+        assertEquals(Number.of(0.1 + 0.2), Expression.parse("0.1 + 0.2").evaluate());
+        assertEquals(new Number(1), Expression.parse("0.5 + 0.5").evaluate());
+        assertEquals(3, Expression.parse("1.5*2").value());
+        assertTrue(Expression.parse("1.5*2").evaluate().isLong());
+    }
+
+    @Test
+    public void testBindEvaluatesBySlot(){
+        BoundExpression bound = Expression.parse("x*x + 2*y + 1").bind(VariableLayout.of("y", "x"));
+
+        assertEquals(Number.of(4*4 + 2*5 + 1), bound.evaluate(new long[] {5, 4}));
+        assertEquals(Number.of(3*3 + 2*1 + 1), bound.evaluate(new int[] {1, 3}));
+        assertEquals(0.5*0.5 + 2*1.5 + 1, bound.evaluate(new double[] {1.5, 0.5}), 0);
+    }
+
+    @Test
+    public void testBindPromotesOnOverflow(){
+        BoundExpression bound = Expression.parse("x*x + 0.5").bind(VariableLayout.of(Expression.parse("x")));
+
+        assertEquals(Expression.parse("x*x + 0.5").evaluate(), bound.evaluate(new long[] {0}));
+        assertEquals("85070591730234615847396907784232501249.5",
+                bound.evaluate(new long[] {Long.MAX_VALUE}).toString());
+        assertEquals(Number.parse("85070591730234615847396907784232501249"),
+                Expression.parse("x*x").bind(VariableLayout.of("x")).evaluate(new long[] {Long.MAX_VALUE}));
+        // int values are widened as they are read, on the fast path and the exact one
+        assertEquals(Number.of(BigInteger.valueOf(Integer.MIN_VALUE).pow(4)),
+                Expression.parse("x*x*x*x").bind(VariableLayout.of("x")).evaluate(new int[] {Integer.MIN_VALUE}));
+        assertEquals(Expression.parse("x*x + 0.5").bind(VariableLayout.of("x")).evaluate(new long[] {-7}),
+                bound.evaluate(new int[] {-7}));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBindUnboundVariable(){
+        Expression.parse("x + y").bind(VariableLayout.of("x"));
+    }
+
+    @Test
+    public void testEvaluateColumns(){
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {0, 1, 2, 3});
+        columns.put("y", new double[] {5, 6, 7, 8});
+
+        double[] values = Expression.parse("x*x + 2*y + 1").evaluate(columns);
+
+        assertArrayEquals(new double[] {11, 14, 19, 26}, values, 0);
+    }
+
+    @Test
+    public void testEvaluateColumnsSplitAcrossTasks(){
+        int rows = 100_000;
+        double[] x = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            x[row] = row;
+        }
+
+        double[] values = Expression.parse("x*(x + 1)").evaluate(Collections.singletonMap("x", x));
+
+        for (int row = 0; row < rows; row++) {
+            assertEquals((double) row * (row + 1), values[row], 0);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testEvaluateColumnsUnboundVariable(){
+        Expression.parse("x + y").evaluate(Collections.singletonMap("x", new double[] {1}));
+    }
+
+    private static Expression deepChain(int depth){
+        Expression chain = new Var("x", 0);
+        for (int i = 1; i < depth; i++) {
+            chain = i % 2 == 0 ? new Add(chain, new Number(1)) : new Multiply(new Var("x", 0), chain);
+        }
+        return chain;
+    }
+
+    @Test
+    public void testDeepExpressionDoesNotOverflow(){
+        Expression first = deepChain(200_000);
+        Expression second = deepChain(200_000);
+
+        assertEquals(first, second);
+        assertEquals(0, first.value());
+        assertEquals(first, Expression.parse(first.toString()));
+    }
+
+    @Test
+    public void testDeepChainThroughAntlr(){
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 50_000; i++) {
+            input.append(" + x");
+        }
+
+        Expression antlr = Expression.parse(input.toString(), ParserEngine.ANTLR);
+
+        assertEquals(Expression.parse(input.toString(), ParserEngine.PRECEDENCE), antlr);
+    }
+
 }
@@ -0,0 +1,113 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for FlatExpression, against the equal object trees.
+ */
+public class FlatExpressionTest {
+
+    // Testing strategy
+    //   FlatExpression.of(tree) must agree with tree on toString, hashCode, value, evaluate,
+    //   and toTree must convert back to an equal tree
+    //   partition on root: leaf, Add, Multiply
+    //   partition on numbers: longs, decimals, overflowing longs
+    //   partition on construction: of(tree), Builder, differentiate
+    //   partition on unused source nodes: none, some left out of a derivative
+    //   partition on sharing: tree, DAG with shared nodes
+    //   partition on depth: shallow, 200k nested operators
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "x", "42", "x + 1", "2*x*y", "(x + y)*(x + y)", "x*(1 + 2) + 3*y*(x + 2)",
+            "0.5*x + 1.25", "9223372036854775807*9223372036854775807 + 3");
+
+    @Test
+    public void testAgreesWithTree() {
+        for (String input : INPUTS) {
+            Expression tree = Expression.parse(input);
+            FlatExpression flat = FlatExpression.of(tree);
+
+            assertEquals(input, tree.toString(), flat.toString());
+            assertEquals(input, tree.hashCode(), flat.hashCode());
+            assertEquals(input, tree.evaluate(), flat.evaluate());
+            assertEquals(input, tree, flat.toTree());
+            assertEquals(input, flat, FlatExpression.of(flat.toTree()));
+        }
+    }
+
+    @Test
+    public void testBuilder() {
+        FlatExpression.Builder builder = new FlatExpression.Builder();
+        int x = builder.variable("x");
+        int sum = builder.add(x, builder.number(Number.of(1)));
+        FlatExpression product = builder.build(builder.multiply(sum, sum));
+
+        assertEquals(FlatExpression.of(Expression.parse("(x + 1)*(x + 1)")), product);
+        assertEquals(2, product.nodeCount());
+        assertEquals(1, product.value());
+    }
+
+    @Test
+    public void testNotEqualToDifferentStructure() {
+        assertNotEquals(FlatExpression.of(Expression.parse("x + y")), FlatExpression.of(Expression.parse("x*y")));
+        assertNotEquals(FlatExpression.of(Expression.parse("x + y")), FlatExpression.of(Expression.parse("y + x")));
+        assertNotEquals(FlatExpression.of(Expression.parse("x + y")), Expression.parse("x + y"));
+    }
+
+    @Test
+    public void testDifferentiateMatchesCommands() {
+        for (String input : INPUTS) {
+            FlatExpression derivative = FlatExpression.of(Expression.parse(input)).differentiate("x");
+
+            assertEquals(input, Commands.differentiate(input, "x"), derivative.toString());
+        }
+    }
+
+    @Test
+    public void testDifferentiateSharesNodes() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 200; i++) {
+            input.append("*x");
+        }
+        FlatExpression flat = FlatExpression.of(Expression.parse(input.toString()));
+        FlatExpression derivative = flat.differentiate("x");
+
+        // three new nodes per product, instead of the quadratic expanded tree;
+        // the root product itself is no operand of the derivative
+        assertEquals(flat.nodeCount() * 4 - 1, derivative.nodeCount());
+        assertEquals(Commands.differentiateShared(input.toString(), "x").root(), derivative.toTree());
+    }
+
+    @Test
+    public void testDerivativeKeepsOnlyReachableNodes() {
+        // d/dz of (x*y)*z is (x*y)*1 + z*(x*0 + y*0): x*y has one parent, the unused (x*y)*z is dropped
+        FlatExpression derivative = FlatExpression.of(Expression.parse("x*y*z")).differentiate("z");
+
+        assertEquals("in (x*y*1 + z*(x*0 + y*0))", derivative.toLetString());
+        // x*y, x*y*1, x*0, y*0, their sum, z times it, and the root sum
+        assertEquals(7, derivative.nodeCount());
+        assertEquals(Commands.differentiate(Expression.parse("x*y*z"), "z").evaluate(), derivative.evaluate());
+        assertEquals(derivative.toTree().toString(), derivative.toString());
+    }
+
+    @Test
+    public void testDeepExpressionDoesNotOverflow() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) {
+            input.append(i % 2 == 0 ? "x + " : "y*");
+        }
+        input.append("z");
+        Expression tree = Expression.parse(input.toString());
+        FlatExpression flat = FlatExpression.of(tree);
+
+        assertEquals(tree.toString(), flat.toString());
+        assertEquals(flat, FlatExpression.of(Expression.parse(input.toString(), ParserEngine.PRECEDENCE)));
+        assertEquals(tree.hashCode(), flat.hashCode());
+        assertEquals(tree, flat.toTree());
+    }
+}
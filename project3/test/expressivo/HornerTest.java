@@ -0,0 +1,118 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Tests for Horner.
+ */
+public class HornerTest {
+
+    // Testing strategy
+    //   optimize must keep the polynomial, value() and compiled values, and never raise the Cost
+    //   partition on variables: none, one, several
+    //   partition on terms: dense, sparse, single, zero polynomial
+    //   partition on input form: expanded sum of products (rewritten),
+    //     already cheaper than Horner form (kept as it is)
+    //   partition on coefficients: integers, decimals
+    //   depth: a polynomial of high degree, deeper than the call stack allows
+
+    private static final List<String> INPUTS = Arrays.asList(
+            "42", "x", "0*x", "x*x*x*x*x*x + 1", "2*x*x*x + 3*x*x + x + 5", "x*y + x*z + y*z",
+            "3*x*x*x + 2*x*x*y + 5*x*y*z + 7*y*y + 11*z + 13", "(x + 1)*(x + 1)*(x + 1)*(x + 1)",
+            "x*x*y*y + x*y + x*x*y + 2", "0.5*x*x + 1.25*x + 0.75", "1.5 + 2.5");
+    private static final double[][] POINTS = {{0, 0, 0}, {1, 2, 3}, {-3, 5, 7}, {2, -1, 11}};
+
+    @Test
+    public void testUnivariate() {
+        Expression expression = Expression.parse("2*x*x*x + 3*x*x + x + 5");
+        Expression horner = Horner.optimize(expression);
+        assertEquals(Expression.parse("x*(x*(2*x + 3) + 1) + 5"), horner);
+        assertEquals("5 multiplications, 3 additions", Horner.Cost.of(expression).toString());
+        assertEquals(3, Horner.Cost.of(horner).multiplications());
+        assertEquals(3, Horner.Cost.of(horner).additions());
+    }
+
+    @Test
+    public void testMultivariate() {
+        Expression horner = Horner.optimize(Expression.parse("x*y + x*z + y*z"));
+        assertEquals(Expression.parse("x*(y + z) + y*z"), horner);
+        assertEquals(2, Horner.Cost.of(horner).multiplications());
+    }
+
+    @Test
+    public void testKeepsCheaperInput() {
+        for (String input : Arrays.asList("(x + 1)*(x + 1)*(x + 1)*(x + 1)", "x*x*x*x*x*x + 1", "x", "42")) {
+            Expression expression = Expression.parse(input);
+            assertSame(input, expression, Horner.optimize(expression));
+        }
+    }
+
+    @Test
+    public void testZero() {
+        assertEquals(Number.of(0), Horner.optimize(Expression.parse("0*x")));
+        assertEquals(Number.of(0), Horner.of(Polynomial.ZERO));
+    }
+
+    @Test
+    public void testSameValues() {
+        for (String input : INPUTS) {
+            Expression expression = Expression.parse(input);
+            Expression horner = Horner.optimize(expression);
+            assertTrue(input, Horner.Cost.of(horner).compareTo(Horner.Cost.of(expression)) <= 0);
+            assertEquals(input, Polynomial.of(expression, Collections.emptyMap()),
+                    Polynomial.of(horner, Collections.emptyMap()));
+            assertEquals(input, expression.evaluate(), horner.evaluate());
+            try {
+                assertEquals(input, expression.value(), horner.value());
+            } catch (ArithmeticException e) {
+                // not an integer: neither form has an int value
+                try {
+                    horner.value();
+                    fail(input + ": expected ArithmeticException");
+                } catch (ArithmeticException expected) {
+                    // expected
+                }
+            }
+
+            CompiledExpression compiled = expression.compile();
+            CompiledExpression compiledHorner = horner.compile();
+            for (double[] point : POINTS) {
+                assertEquals(input, compiled.evaluate(slots(compiled, point)),
+                        compiledHorner.evaluate(slots(compiledHorner, point)), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * @return the slots of compiled for x = point[0], y = point[1], z = point[2]
+     */
+    private static double[] slots(CompiledExpression compiled, double[] point) {
+        double[] slots = new double[compiled.variables().size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = point["xyz".indexOf(compiled.variables().get(i))];
+        }
+        return slots;
+    }
+
+    @Test
+    public void testHighDegree() {
+        // x^5000 + x^4999 + ... + x + 1, built term by term: expanding (x + 1)^5000 instead
+        // spends all the time on the huge binomial coefficients
+        TreeMap<Monomial, Number> terms = new TreeMap<>();
+        for (int exponent = 0; exponent <= 5000; exponent++) {
+            terms.put(Monomial.of(new String[] {"x"}, new int[] {exponent}), Number.of(1));
+        }
+        Expression horner = Horner.of(Polynomial.fromTerms(terms));
+        // the leading coefficient is 1, so the innermost factor is x itself
+        assertEquals(4999, Horner.Cost.of(horner).multiplications());
+        assertEquals(5000, Horner.Cost.of(horner).additions());
+        assertEquals(Number.of(1), horner.evaluate());
+    }
+}
@@ -0,0 +1,111 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for Commands.equivalent and ModularEquivalence.
+ */
+public class ModularEquivalenceTest {
+
+    // Testing strategy
+    //   partition on result: equivalent, not equivalent
+    //   partition on form: same structure, expanded vs factored, derivative vs hand-written
+    //   partition on numbers: integers, decimals, BigIntegers, integral doubles beyond long,
+    //     constants only
+    //   partition on sharing: trees, shared DAG of exponential tree size
+    //   invalid error bound, degree too high: throw
+
+    private static final String[][] EQUIVALENT = {
+            {"x", "x"},
+            {"x*(y + z)", "x*y + x*z"},
+            {"(x + 1)*(x + 1)", "x*x + 2*x + 1"},
+            {"(x + y)*(x + y)*(x + y)", "x*x*x + 3*x*x*y + 3*x*y*y + y*y*y"},
+            {"0.1 + 0.2", "0.3"},
+            {"0.5*x", "x*0.25*2"},
+            {"99999999999999999999*x + 1", "1 + x*99999999999999999999"},
+            {"2 + 3", "5"},
+    };
+
+    private static final String[][] INEQUIVALENT = {
+            {"x", "y"},
+            {"x*y", "x*z"},
+            {"x + 1", "x + 2"},
+            {"x*x", "x"},
+            {"(x + 1)*(x + 1)", "x*x + 1"},
+            {"0.1 + 0.2", "0.30000000000000004"},
+            {"2147483647", "0"},
+            {"99999999999999999999*x", "99999999999999999998*x"},
+            // integers beyond long that round to the same double, and are read exactly
+            {"9223372036854775808", "9223372036854776000"},
+            {"x*9223372036854775808", "x*9223372036854776000"},
+            // a decimal rounded to an integral double is read as the double it holds, 2^64
+            {"18446744073709551616.5*1", "18446744073709552000"},
+    };
+
+    @Test
+    public void testEquivalent() {
+        for (String[] pair : EQUIVALENT) {
+            assertTrue(pair[0] + " = " + pair[1], Commands.equivalent(pair[0], pair[1]));
+            assertTrue(pair[1] + " = " + pair[0], Commands.equivalent(pair[1], pair[0]));
+        }
+    }
+
+    @Test
+    public void testInequivalent() {
+        for (String[] pair : INEQUIVALENT) {
+            assertFalse(pair[0] + " != " + pair[1], Commands.equivalent(pair[0], pair[1]));
+            assertFalse(pair[1] + " != " + pair[0], Commands.equivalent(pair[1], pair[0]));
+        }
+    }
+
+    @Test
+    public void testSeededErrorBounds() {
+        Random random = new Random(6005);
+        for (double errorBound : new double[] { 0.5, 1e-3, 1e-30 }) {
+            for (String[] pair : EQUIVALENT) {
+                Expression a = Expression.parse(pair[0]);
+                Expression b = Expression.parse(pair[1]);
+                assertTrue(pair[0], ModularEquivalence.equivalent(a, b, errorBound, random));
+            }
+        }
+    }
+
+    @Test
+    public void testDerivatives() {
+        Expression derivative = Commands.differentiate(Expression.parse("x*x*x*y + 2*x*y"), "x");
+        assertTrue(Commands.equivalent(derivative, Expression.parse("3*x*x*y + 2*y")));
+        assertFalse(Commands.equivalent(derivative, Expression.parse("3*x*x*y + y")));
+    }
+
+    @Test
+    public void testSharedDag() {
+        // x^(2^24), 25 distinct nodes but 2^25 - 1 as a tree
+        Expression square = new Var("x", 0);
+        Expression other = new Var("x", 0);
+        for (int i = 0; i < 24; i++) {
+            square = new Multiply(square, square);
+            other = new Multiply(other, other);
+        }
+        assertTrue(Commands.equivalent(square, other));
+        assertFalse(Commands.equivalent(square, new Multiply(square, new Var("x", 0))));
+        assertFalse(Commands.equivalent(square, new Add(square, new Number(1))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDegreeTooHigh() {
+        Expression square = new Var("x", 0);
+        for (int i = 0; i < 40; i++) {
+            square = new Multiply(square, square);
+        }
+        Commands.equivalent(square, square);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidErrorBound() {
+        Commands.equivalent(Expression.parse("x"), Expression.parse("x"), 1);
+    }
+}
@@ -0,0 +1,172 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for ParallelFold, against the sequential folds.
+ */
+public class ParallelFoldTest {
+
+    // Testing strategy
+    //   every fold must return the same result as its sequential version
+    //   partition on size: below THRESHOLD (not split), above it
+    //   partition on pool: 1 thread, 4 threads
+    //   partition on sharing: tree, DAG whose tree size overflows an int,
+    //     small subtrees shared by several sequential chunks
+
+    private static final Expression[] TERMS = {
+        Expression.parse("x*y"), Expression.parse("3*x"), Expression.parse("2*z + y"), Expression.parse("0.5*x*z")
+    };
+
+    /**
+     * @return a balanced tree of terms, with Add and Multiply nodes alternating with depth
+     */
+    private static Expression balanced(int depth, int index) {
+        if (depth == 0) {
+            return TERMS[index % TERMS.length];
+        }
+        Expression left = balanced(depth - 1, 2 * index);
+        Expression right = depth % 5 == 0 ? Expression.parse("x + 1") : balanced(depth - 1, 2 * index + 1);
+        return depth % 5 == 0 ? new Multiply(left, right) : new Add(left, right);
+    }
+
+    @Test
+    public void testSizeIsCached() {
+        Expression expression = Expression.parse("x*y + 3*(x + 1)");
+
+        assertEquals(9, ExpressionWalker.size(expression));
+        assertEquals(1, ExpressionWalker.size(Expression.parse("x")));
+    }
+
+    @Test
+    public void testMatchesSequentialFolds() {
+        Map<String, Integer> environment = new HashMap<>();
+        environment.put("y", 2);
+        for (int depth : new int[] {8, 16}) {
+            Expression expression = balanced(depth, 0);
+            assertEquals(depth > 8, ParallelFold.isLarge(expression));
+            for (int threads : new int[] {1, 4}) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    assertEquals(ExpressionWalker.evaluate(expression), ParallelFold.evaluate(expression, pool));
+                    assertEquals(FlatExpression.of(expression).differentiate("x").toTree(),
+                            ParallelFold.differentiate(expression, "x", pool));
+                    assertEquals(Polynomial.of(expression, environment),
+                            ParallelFold.polynomial(expression, environment, pool));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct nodes of expression, by identity
+     */
+    private static int distinctNodes(Expression expression) {
+        Map<Expression, Boolean> visited = new IdentityHashMap<>();
+        ExpressionWalker.walk(expression, new ExpressionWalker.Listener() {
+            @Override
+            public boolean enter(Expression node) {
+                return visited.put(node, Boolean.TRUE) == null;
+            }
+
+            @Override
+            public void exit(Expression node) {
+            }
+        });
+        return visited.size();
+    }
+
+    /**
+     * @return bottom*x + offset, times x, plus offset + 1, and so on: a chain of 4*10^4 more nodes
+     */
+    private static Expression chain(Expression bottom, int offset) {
+        Expression chain = bottom;
+        for (int i = 0; i < 10_000; i++) {
+            chain = new Add(new Multiply(chain, new Var("x", 0)), new Number(offset + i));
+        }
+        return chain;
+    }
+
+    /**
+     * @return true iff a and b are equal expressions, comparing every pair of nodes once
+     */
+    private static boolean sameDag(Expression a, Expression b) {
+        Map<Expression, Expression> matched = new IdentityHashMap<>();
+        Deque<Expression[]> pairs = new ArrayDeque<>();
+        pairs.push(new Expression[] { a, b });
+        while (!pairs.isEmpty()) {
+            Expression[] pair = pairs.pop();
+            if (matched.get(pair[0]) == pair[1]) {
+                continue;
+            }
+            Expression left = ExpressionWalker.left(pair[0]);
+            if (left == null) {
+                if (!pair[0].equals(pair[1])) {
+                    return false;
+                }
+            } else if (pair[0].getClass() != pair[1].getClass()) {
+                return false;
+            } else {
+                pairs.push(new Expression[] { ExpressionWalker.right(pair[0]), ExpressionWalker.right(pair[1]) });
+                pairs.push(new Expression[] { left, ExpressionWalker.left(pair[1]) });
+            }
+            matched.put(pair[0], pair[1]);
+        }
+        return true;
+    }
+
+    @Test
+    public void testDerivativeSharesNodesAcrossChunks() {
+        // two large, different operands, so two tasks, whose sequential chunks both hold shared
+        Expression shared = Expression.parse("x*y + 3*x");
+        Expression expression = new Multiply(chain(shared, 0), chain(shared, 1));
+        assertTrue(ParallelFold.isLarge(ExpressionWalker.left(expression)));
+        Expression sequential = Commands.differentiateSequentially(expression, "x");
+        for (int threads : new int[] {1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                Expression parallel = ParallelFold.differentiate(expression, "x", pool);
+                // equals would walk the shared derivatives as trees
+                assertTrue(sameDag(sequential, parallel));
+                assertEquals(distinctNodes(sequential), distinctNodes(parallel));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testCommandsMatchSequentialFolds() {
+        Expression expression = balanced(16, 0);
+
+        assertEquals(ExpressionWalker.evaluate(expression), expression.evaluate());
+        assertEquals(FlatExpression.of(expression).differentiate("z").toTree(),
+                Commands.differentiate(expression, "z"));
+        assertEquals(Polynomial.of(expression, Collections.emptyMap()).toExpression(),
+                Commands.simplify(expression, Collections.emptyMap()));
+    }
+
+    @Test
+    public void testSharedSubtreesAreFoldedOnce() {
+        // (x + 1)^(2^40) by repeated squaring: 40 distinct products, a tree of 2^42 nodes
+        Expression power = Expression.parse("x + 1");
+        for (int i = 0; i < 40; i++) {
+            power = new Multiply(power, power);
+        }
+        assertEquals(Integer.MAX_VALUE, ExpressionWalker.size(power));
+
+        assertEquals(Number.of(1), ParallelFold.evaluate(power, ForkJoinPool.commonPool()));
+    }
+}
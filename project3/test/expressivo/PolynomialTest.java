@@ -0,0 +1,146 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests for Polynomial multiplication, against the term-by-term product.
+ */
+public class PolynomialTest {
+
+    // Testing strategy
+    //   multiply must equal multiplyTermByTerm, term for term
+    //   partition on size: below PackedMultiplication.MIN_PAIRS, term by term on packed keys,
+    //     Kronecker substitution with Karatsuba (dense univariate, dense in every exponent);
+    //     dense in total degree stays term by term
+    //   partition on coefficients: small longs, longs whose products overflow, BigIntegers,
+    //     decimals
+    //   partition on exponents: pack into a long, don't (falls back to Monomial objects)
+    //   pow: 0, 1, larger; conversion to Expression and back
+
+    private static final String[] NAMES = {"a", "b", "x", "y", "z"};
+
+    /**
+     * @return a random polynomial with about terms terms of degree up to maxDegree
+     */
+    private static Polynomial random(Random random, int terms, int maxDegree, Number maxCoefficient) {
+        Polynomial sum = Polynomial.ZERO;
+        for (int t = 0; t < terms; t++) {
+            Polynomial term = Polynomial.constant(maxCoefficient.multiply(Number.of(1 + random.nextInt(1000))));
+            int degree = random.nextInt(maxDegree + 1);
+            for (int d = 0; d < degree; d++) {
+                term = term.multiplyTermByTerm(Polynomial.variable(NAMES[random.nextInt(NAMES.length)]));
+            }
+            sum = sum.add(term);
+        }
+        return sum;
+    }
+
+    private static void assertSameProduct(Polynomial a, Polynomial b) {
+        Polynomial expected = a.multiplyTermByTerm(b);
+        Polynomial actual = a.multiply(b);
+        assertEquals(expected.terms(), actual.terms());
+    }
+
+    @Test
+    public void testSmallLongCoefficients() {
+        Random random = new Random(1);
+        for (int terms : new int[] {3, 20, 200}) {
+            assertSameProduct(random(random, terms, 4, Number.of(1)), random(random, terms, 4, Number.of(1)));
+        }
+    }
+
+    @Test
+    public void testLargeCoefficients() {
+        Random random = new Random(2);
+        Number overflowing = Number.of(1L << 40);
+        Number big = Number.of(BigInteger.ONE.shiftLeft(100));
+        assertSameProduct(random(random, 100, 4, overflowing), random(random, 100, 4, overflowing));
+        assertSameProduct(random(random, 100, 4, big), random(random, 100, 4, Number.of(3)));
+    }
+
+    @Test
+    public void testDecimalCoefficients() {
+        Random random = new Random(3);
+        assertSameProduct(random(random, 100, 3, Number.parse("0.1")), random(random, 100, 3, Number.parse("1.5")));
+    }
+
+    @Test
+    public void testDenseMultivariate() {
+        // every monomial of degree up to 8 in x, y, z: 165^2 pairs, but 17^3 = 4913 slots,
+        // and 4913^1.58 is more, so this goes term by term on packed keys, not by Kronecker
+        Polynomial sum = Polynomial.variable("x").add(Polynomial.variable("y"))
+                .add(Polynomial.variable("z")).add(Polynomial.constant(1));
+        Polynomial power = sum.pow(8);
+        assertEquals(165, power.terms().size());
+        assertSameProduct(power, power);
+        assertSameProduct(power, power.add(Polynomial.constant(Number.of(Long.MAX_VALUE))));
+    }
+
+    @Test
+    public void testKronecker() {
+        // every x^i*y^j with i, j <= 31: 1024^2 pairs and 63^2 slots, dense enough for Kronecker
+        assertTrue(Math.pow(63 * 63, Math.log(3) / Math.log(2)) < 1024L * 1024);
+        TreeMap<Monomial, Number> terms = new TreeMap<>();
+        for (int i = 0; i <= 31; i++) {
+            for (int j = 0; j <= 31; j++) {
+                terms.put(Monomial.of(new String[] {"x", "y"}, new int[] {i, j}), Number.of(i * j % 5 + 1));
+            }
+        }
+        Polynomial box = Polynomial.fromTerms(terms);
+        assertSameProduct(box, box);
+        assertEquals(63 * 63, box.multiply(box).terms().size());
+    }
+
+    @Test
+    public void testKaratsuba() {
+        // dense univariate, odd lengths and gaps, so that Karatsuba splits unevenly
+        Polynomial x = Polynomial.variable("x");
+        Polynomial left = Polynomial.constant(0);
+        Polynomial right = Polynomial.constant(0);
+        for (int i = 0; i < 301; i++) {
+            left = left.add(x.pow(i).multiply(Polynomial.constant(Number.of(i % 7 + 1))));
+            if (i % 5 != 3) {
+                right = right.add(x.pow(i).multiply(Polynomial.constant(Number.of(1L << 40))));
+            }
+        }
+        assertSameProduct(left, right);
+        assertEquals(601, left.multiply(right).terms().size());
+    }
+
+    @Test
+    public void testExponentsTooLargeToPack() {
+        Polynomial x = Polynomial.variable("x");
+        Polynomial huge = Polynomial.constant(1);
+        for (int i = 0; i < 8; i++) {
+            huge = huge.add(Polynomial.variable(NAMES[i % NAMES.length]).pow(1 << 29));
+            huge = huge.add(x.pow(i));
+        }
+        assertNull(PackedMultiplication.multiply(huge.pow(2), huge.pow(2)));
+        assertSameProduct(huge, huge);
+    }
+
+    @Test
+    public void testPow() {
+        Polynomial sum = Polynomial.variable("x").add(Polynomial.constant(1));
+
+        assertEquals(Polynomial.constant(1), sum.pow(0));
+        assertEquals(sum, sum.pow(1));
+        assertEquals("(((x*x*x + 3*x*x) + 3*x) + 1)", sum.pow(3).toString());
+        assertEquals(Polynomial.constant(Number.of(BigInteger.ONE.shiftLeft(100))),
+                Polynomial.constant(2).pow(100));
+    }
+
+    @Test
+    public void testExpressionRoundTrip() {
+        Polynomial power = Polynomial.of(Expression.parse("(x + 2*y + 3)*(x + y)*(x + y + z)"), Collections.emptyMap());
+
+        assertEquals(power, Polynomial.of(power.toExpression(), Collections.emptyMap()));
+    }
+}
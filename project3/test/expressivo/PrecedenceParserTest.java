@@ -0,0 +1,128 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Differential tests of PrecedenceParser against the ANTLR parser.
+ */
+public class PrecedenceParserTest {
+
+    // Testing strategy
+    //   every input is parsed by both engines:
+    //     valid input: both ASTs must be equal
+    //     invalid input: both engines must throw
+    //   partition on input:
+    //     single number: int, long, larger than long, decimal, decimal larger than a double, single variable, '+' only, '*' only, mixed precedence,
+    //     redundant and nested parentheses, spaces and tabs around tokens,
+    //     randomly generated expressions printed with random parentheses and spaces
+    //     lexical errors, missing operands, unbalanced parentheses, empty input
+
+    private static void assertSameAst(String input) {
+        Expression antlr = Expression.parse(input, ParserEngine.ANTLR);
+        Expression precedence = Expression.parse(input, ParserEngine.PRECEDENCE);
+        assertEquals(input, antlr, precedence);
+    }
+
+    private static void assertBothReject(String input) {
+        try {
+            Expression.parse(input, ParserEngine.ANTLR);
+            fail("ANTLR accepted " + input);
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        try {
+            Expression.parse(input, ParserEngine.PRECEDENCE);
+            fail("PRECEDENCE accepted " + input);
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValidInputs() {
+        String[] inputs = {
+            "0", "42", "x", "Foo",
+            "x + 1", "1 + 2 + 3", "x * y", "2 * 3 * x",
+            "x + y * z", "x * y + z", "x * (y + z)", "(x + y) * z",
+            "((x))", "(((1 + (2)) * ((x))))", "\tx\t*  y+z ",
+            "x*1 + x*(x + 1)", "2 * x + z", "a*b + c*d*e + f",
+            "1.5", "2.50 * x", "0.1 + 0.2", "9223372036854775807", "9223372036854775808",
+            "123456789012345678901234567890 * x", "1" + new String(new char[400]).replace('\0', '0') + ".5",
+        };
+        for (String input : inputs) {
+            assertSameAst(input);
+        }
+    }
+
+    @Test
+    public void testInvalidInputs() {
+        String[] inputs = {
+            "", " ", "x +", "* x", "x y", "2x", "(x", "x)", "()", "x + (y", "x ++ y", "x # y",
+            "1.", ".5", "1..5", "1.5.2", "1 .5", "1.5x",
+        };
+        for (String input : inputs) {
+            assertBothReject(input);
+        }
+    }
+
+    @Test
+    public void testRandomExpressions() {
+        Random random = new Random(6005);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder input = new StringBuilder();
+            print(randomExpression(random, 6), random, input);
+            assertSameAst(input.toString());
+        }
+    }
+
+    @Test
+    public void testDeepNestingDoesNotOverflow() {
+        int depth = 100_000;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            input.append('(');
+        }
+        input.append('x');
+        for (int i = 0; i < depth; i++) {
+            input.append(')');
+        }
+
+        assertEquals(new Var("x", 0), PrecedenceParser.parse(input));
+    }
+
+    private static Expression randomExpression(Random random, int depth) {
+        int choice = random.nextInt(depth <= 0 ? 2 : 4);
+        switch (choice) {
+        case 0: return new Number(random.nextInt(100));
+        case 1: return new Var(String.valueOf((char) ('a' + random.nextInt(4))), 0);
+        case 2: return new Add(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+        default: return new Multiply(randomExpression(random, depth - 1), randomExpression(random, depth - 1));
+        }
+    }
+
+    /**
+     * Print expression fully parenthesized where the grouping requires it,
+     * plus random redundant parentheses and spaces
+     */
+    private static void print(Expression expression, Random random, StringBuilder out) {
+        boolean redundant = random.nextInt(5) == 0;
+        if (redundant) out.append('(');
+        if (expression instanceof Add || expression instanceof Multiply) {
+            Expression left = expression instanceof Add ? ((Add) expression).getLeft() : ((Multiply) expression).getLeft();
+            Expression right = expression instanceof Add ? ((Add) expression).getRight() : ((Multiply) expression).getRight();
+            out.append('(');
+            print(left, random, out);
+            out.append(random.nextBoolean() ? " " : "").append(expression instanceof Add ? '+' : '*');
+            out.append(random.nextBoolean() ? "\t" : "");
+            print(right, random, out);
+            out.append(')');
+        } else {
+            out.append(expression);
+        }
+        if (redundant) out.append(')');
+    }
+}
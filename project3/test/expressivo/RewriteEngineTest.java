@@ -0,0 +1,116 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for RewriteEngine, RewriteRule and DiscriminationTree.
+ */
+public class RewriteEngineTest {
+
+    // Testing strategy
+    //   partition on rules applying: none, one, several in a row until a fixpoint
+    //   partition on position: root, deep inside, operands made rewritable by their own rewrites
+    //   partition on patterns: linear, variable used twice, numbers; several matching one node
+    //   partition on rule count: the identities, hundreds of rules
+    //   partition on shape: tree, shared DAG of exponential tree size, chain deeper than the call stack
+    //   invalid rules: single-variable pattern, unbound replacement variable
+
+    private static void assertRewrites(RewriteEngine engine, String expected, String input) {
+        assertEquals(input, Expression.parse(expected), engine.rewrite(Expression.parse(input)));
+    }
+
+    @Test
+    public void testIdentities() {
+        assertRewrites(RewriteEngine.IDENTITIES, "x", "x*1 + 0");
+        assertRewrites(RewriteEngine.IDENTITIES, "x*y", "(x + 0)*(y*1)");
+        assertRewrites(RewriteEngine.IDENTITIES, "y", "x*0 + y");
+        assertRewrites(RewriteEngine.IDENTITIES, "0", "0*(x + y*z)");
+        assertRewrites(RewriteEngine.IDENTITIES, "x*y + 2", "x*y + 2");
+    }
+
+    @Test
+    public void testFixpoint() {
+        // x*0 -> 0, then 0 + 1 -> 1, then 1*y -> y
+        assertRewrites(RewriteEngine.IDENTITIES, "y", "(x*0 + 1)*y");
+        assertRewrites(RewriteEngine.IDENTITIES, "z", "((0 + 1)*(x*0 + 1))*z");
+    }
+
+    @Test
+    public void testNonlinearPattern() {
+        RewriteEngine engine = RewriteEngine.of(Arrays.asList(RewriteRule.of("x + x", "2*x")));
+        assertRewrites(engine, "2*(y*z)", "y*z + y*z");
+        assertRewrites(engine, "y + z", "y + z");
+        // the operands are rewritten first, then their sum is equal operands again
+        assertRewrites(engine, "2*(2*y)", "(y + y) + (y + y)");
+    }
+
+    @Test
+    public void testFirstRuleWins() {
+        RewriteRule doubling = RewriteRule.of("x*2", "x + x");
+        RewriteRule swap = RewriteRule.of("y*2", "2*y");
+        assertRewrites(RewriteEngine.of(Arrays.asList(doubling, swap)), "z + z", "z*2");
+        assertRewrites(RewriteEngine.of(Arrays.asList(swap, doubling)), "2*z", "z*2");
+    }
+
+    @Test
+    public void testManyRules() {
+        List<RewriteRule> rules = new ArrayList<>(RewriteEngine.IDENTITIES.rules());
+        for (int n = 2; n < 500; n++) {
+            rules.add(RewriteRule.of("x*" + n, n + "*x"));
+        }
+        RewriteEngine engine = RewriteEngine.of(rules);
+        assertRewrites(engine, "250*y + 3*(4*z)", "y*250 + z*4*3*1");
+
+        DiscriminationTree<RewriteRule> index = new DiscriminationTree<>();
+        for (RewriteRule rule : rules) {
+            index.insert(rule.pattern(), rule);
+        }
+        List<RewriteRule> candidates = new ArrayList<>();
+        index.candidates(Expression.parse("y*250"), candidates);
+        assertEquals(Arrays.asList(RewriteRule.of("x*250", "250*x")), candidates);
+        candidates.clear();
+        index.candidates(Expression.parse("y*z"), candidates);
+        assertEquals(0, candidates.size());
+    }
+
+    @Test
+    public void testSharedDag() {
+        // 2^30 leaves as a tree, 31 distinct nodes
+        Expression square = new Multiply(new Var("x", 0), new Number(1));
+        for (int i = 0; i < 30; i++) {
+            square = new Multiply(square, square);
+        }
+        Expression rewritten = RewriteEngine.IDENTITIES.rewrite(square);
+        for (int i = 0; i < 30; i++) {
+            Multiply multiply = (Multiply) rewritten;
+            assertSame(multiply.getLeft(), multiply.getRight());
+            rewritten = multiply.getLeft();
+        }
+        assertEquals(new Var("x", 0), rewritten);
+    }
+
+    @Test
+    public void testDeepChain() {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < 100_000; i++) {
+            input.append(i % 2 == 0 ? "*1" : " + 0");
+        }
+        assertRewrites(RewriteEngine.IDENTITIES, "x", input.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSingleVariablePattern() {
+        RewriteRule.of("x", "x + 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboundReplacementVariable() {
+        RewriteRule.of("x*0", "y");
+    }
+}